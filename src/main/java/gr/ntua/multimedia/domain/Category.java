@@ -1,14 +1,19 @@
 package gr.ntua.multimedia.domain;
 
+import gr.ntua.multimedia.util.TextUtil;
+
 import java.util.Objects;
 
 public class Category {
     private final String id;
     private String name;
+    private String normalizedName;
+    private long revision = Revisions.next();
 
     public Category(String id, String name) {
         this.id = requireNonBlank(id, "id");
         this.name = requireNonBlank(name, "name");
+        this.normalizedName = TextUtil.normalize(name);
     }
 
     public String getId() {
@@ -19,8 +24,20 @@ public class Category {
         return name;
     }
 
+    /** The name as compared by searches and uniqueness checks; see {@link TextUtil#normalize}. */
+    public String getNormalizedName() {
+        return normalizedName;
+    }
+
+    // Changes on every modification; see Revisions.
+    public long getRevision() {
+        return revision;
+    }
+
     public void rename(String newName) {
         this.name = requireNonBlank(newName, "newName");
+        this.normalizedName = TextUtil.normalize(newName);
+        this.revision = Revisions.next();
     }
 
     @Override
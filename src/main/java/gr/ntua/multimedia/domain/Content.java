@@ -0,0 +1,54 @@
+package gr.ntua.multimedia.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * The text of a document version, shared by every version with the same text (see {@link ContentStore}).
+ * Its SHA-256 hash identifies it in storage and is only computed when first asked for.
+ */
+public final class Content {
+    private final String text;
+    private String hash;
+
+    private Content(String text) {
+        this.text = Objects.requireNonNull(text, "text cannot be null");
+    }
+
+    /**
+     * @param hash the SHA-256 hash of {@code text} as lowercase hex, e.g. as read back from storage
+     */
+    public Content(String hash, String text) {
+        this(text);
+        this.hash = Objects.requireNonNull(hash, "hash cannot be null");
+    }
+
+    public static Content of(String text) {
+        return new Content(text);
+    }
+
+    public String getHash() {
+        String h = hash;
+        if (h == null) {
+            h = hash(text);
+            hash = h;
+        }
+        return h;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package gr.ntua.multimedia.domain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference-counted pool of version contents.
+ * <p>
+ * Every document attached to the store holds one reference per version, and all versions with the
+ * same text share one {@link Content} instance. A content is dropped once the last version referring
+ * to it is gone, e.g. when its documents are deleted directly or along with their category.
+ * <p>
+ * The pool is keyed by the text itself rather than by {@link Content#getHash()}: equal texts have
+ * equal hashes, and this way loading a store does not have to hash every content up front.
+ * <p>
+ * Lazily loaded histories register their contents when first read, possibly by concurrent readers, so
+ * the store is synchronized.
+ */
+public final class ContentStore {
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private static final class Entry {
+        final Content content;
+        int references;
+
+        Entry(Content content) {
+            this.content = content;
+        }
+    }
+
+    /** The distinct contents currently referenced by at least one version. */
+    public synchronized List<Content> contents() {
+        List<Content> out = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) out.add(e.content);
+        return out;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Adds a reference and returns the shared instance for the content's text. */
+    synchronized Content acquire(Content content) {
+        Entry entry = entries.computeIfAbsent(content.getText(), t -> new Entry(content));
+        entry.references++;
+        return entry.content;
+    }
+
+    synchronized void release(Content content) {
+        Entry entry = entries.get(content.getText());
+        if (entry == null) return;
+        if (--entry.references == 0) entries.remove(content.getText());
+    }
+}
@@ -0,0 +1,186 @@
+package gr.ntua.multimedia.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-based difference that rebuilds a target text from a base text, kept in its encoded form.
+ * <p>
+ * The encoding is a sequence of operations: {@code c<offset>,<length>;} copies that range of the
+ * base text and {@code i<length>:<text>} inserts literal text. Lines the two texts have in common
+ * (a longest common subsequence, found with Myers' algorithm) become copies.
+ */
+public final class Delta {
+    // Beyond this many differing lines the texts are treated as unrelated between their common prefix and suffix.
+    private static final int MAX_EDIT_DISTANCE = 1000;
+
+    private final String encoded;
+
+    private Delta(String encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code encoded} is not a valid delta encoding
+     */
+    public static Delta decode(String encoded) {
+        Delta delta = new Delta(encoded);
+        delta.apply(null);
+        return delta;
+    }
+
+    public static Delta between(String base, String target) {
+        List<String> baseLines = lines(base);
+        List<String> targetLines = lines(target);
+        int[] baseOffsets = new int[baseLines.size() + 1];
+        for (int i = 0; i < baseLines.size(); i++) baseOffsets[i + 1] = baseOffsets[i] + baseLines.get(i).length();
+
+        // Lines are compared as ids, so the diff compares ints instead of strings.
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = new int[baseLines.size()];
+        int[] b = new int[targetLines.size()];
+        for (int i = 0; i < a.length; i++) a[i] = ids.computeIfAbsent(baseLines.get(i), l -> ids.size());
+        for (int j = 0; j < b.length; j++) b[j] = ids.computeIfAbsent(targetLines.get(j), l -> ids.size());
+
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix] == b[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && a[a.length - 1 - suffix] == b[b.length - 1 - suffix]) suffix++;
+
+        // matchedBase[j] is the base line that target line j is copied from, or -1 if it is inserted.
+        int[] matchedBase = new int[b.length];
+        Arrays.fill(matchedBase, -1);
+        for (int k = 0; k < prefix; k++) matchedBase[k] = k;
+        for (int k = 1; k <= suffix; k++) matchedBase[b.length - k] = a.length - k;
+        matchMiddle(a, prefix, a.length - suffix, b, prefix, b.length - suffix, matchedBase);
+
+        StringBuilder out = new StringBuilder();
+        int j = 0;
+        while (j < b.length) {
+            if (matchedBase[j] >= 0) {
+                int first = matchedBase[j];
+                int last = first;
+                j++;
+                while (j < b.length && matchedBase[j] == last + 1) last = matchedBase[j++];
+                out.append('c').append(baseOffsets[first]).append(',')
+                        .append(baseOffsets[last + 1] - baseOffsets[first]).append(';');
+            } else {
+                StringBuilder inserted = new StringBuilder();
+                while (j < b.length && matchedBase[j] < 0) inserted.append(targetLines.get(j++));
+                out.append('i').append(inserted.length()).append(':').append(inserted);
+            }
+        }
+        return new Delta(out.toString());
+    }
+
+    public String applyTo(String base) {
+        return apply(base);
+    }
+
+    public String encoded() {
+        return encoded;
+    }
+
+    // With a null base only the syntax is checked.
+    private String apply(String base) {
+        StringBuilder out = base != null ? new StringBuilder(base.length()) : null;
+        int i = 0;
+        try {
+            while (i < encoded.length()) {
+                char op = encoded.charAt(i++);
+                if (op == 'c') {
+                    int comma = encoded.indexOf(',', i);
+                    int semicolon = encoded.indexOf(';', comma);
+                    int offset = Integer.parseInt(encoded, i, comma, 10);
+                    int length = Integer.parseInt(encoded, comma + 1, semicolon, 10);
+                    if (out != null) out.append(base, offset, offset + length);
+                    i = semicolon + 1;
+                } else if (op == 'i') {
+                    int colon = encoded.indexOf(':', i);
+                    int length = Integer.parseInt(encoded, i, colon, 10);
+                    if (colon + 1 + length > encoded.length()) throw new IllegalArgumentException("Truncated insert");
+                    if (out != null) out.append(encoded, colon + 1, colon + 1 + length);
+                    i = colon + 1 + length;
+                } else {
+                    throw new IllegalArgumentException("Unknown delta operation '" + op + "'");
+                }
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed delta at offset " + i, e);
+        }
+        return out != null ? out.toString() : null;
+    }
+
+    // Splits after every '\n', keeping the terminators, so concatenating the lines gives back the text.
+    private static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? text.length() : newline + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /** Myers' O(ND) diff on a[aFrom, aTo) and b[bFrom, bTo), recording matched line pairs. */
+    private static void matchMiddle(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, int[] matchedBase) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        if (n == 0 || m == 0) return;
+        int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    backtrack(trace, n, m, aFrom, bFrom, matchedBase);
+                    return;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        // Too different: leave the middle unmatched, i.e. inserted in full.
+    }
+
+    private static void backtrack(List<int[]> trace, int n, int m, int aFrom, int bFrom, int[] matchedBase) {
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            boolean down = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                matchedBase[bFrom + y] = aFrom + x;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            matchedBase[bFrom + y] = aFrom + x;
+        }
+    }
+}
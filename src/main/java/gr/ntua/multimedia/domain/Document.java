@@ -1,18 +1,32 @@
 package gr.ntua.multimedia.domain;
 
+import gr.ntua.multimedia.util.TextUtil;
+
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 public class Document {
+    /**
+     * Every this many versions one is kept in full, bounding how many deltas rebuilding an old version
+     * applies. The latest version is always kept in full too; the others are stored as deltas.
+     */
+    public static final int KEYFRAME_INTERVAL = 10;
+
     private final String id;
     private final String title;
     private final String categoryId;
     private final String authorUsername;
     private final LocalDateTime createdAt;
-    private final List<DocumentVersion> versions;
+    private final String normalizedTitle;
+    private volatile List<DocumentVersion> versions;        // null until historyLoader has run
+    private Supplier<List<DocumentVersion>> historyLoader;
+    private int latestVersionNumber;
+    private ContentStore contentStore;                      // set while the document belongs to a system
+    private long revision = Revisions.next();
 
     public Document(
             String id,
@@ -21,15 +35,80 @@ public class Document {
             String authorUsername,
             LocalDateTime createdAt,
             String initialContent
+    ) {
+        this(id, title, categoryId, authorUsername, createdAt, Content.of(requireNonBlank(initialContent, "content")));
+    }
+
+    public Document(
+            String id,
+            String title,
+            String categoryId,
+            String authorUsername,
+            LocalDateTime createdAt,
+            Content initialContent
     ) {
         this.id = requireNonBlank(id, "id");
         this.title = requireNonBlank(title, "title");
+        this.normalizedTitle = TextUtil.normalize(title);
         this.categoryId = requireNonBlank(categoryId, "categoryId");
         this.authorUsername = requireNonBlank(authorUsername, "authorUsername");
         this.createdAt = Objects.requireNonNull(createdAt, "createdAt cannot be null");
 
         this.versions = new ArrayList<>();
-        this.versions.add(new DocumentVersion(1, createdAt, initialContent));
+        this.versions.add(new DocumentVersion(1, this.createdAt, initialContent));
+        this.latestVersionNumber = 1;
+    }
+
+    /**
+     * Creates a document from its existing versions, e.g. as read back from storage.
+     *
+     * @param versions every version, numbered from 1 without gaps and sorted oldest first; the latest one
+     *                 must be stored in full. They are kept as given; see {@link #compactHistory()}.
+     */
+    public Document(
+            String id,
+            String title,
+            String categoryId,
+            String authorUsername,
+            LocalDateTime createdAt,
+            List<DocumentVersion> versions
+    ) {
+        this.id = requireNonBlank(id, "id");
+        this.title = requireNonBlank(title, "title");
+        this.normalizedTitle = TextUtil.normalize(title);
+        this.categoryId = requireNonBlank(categoryId, "categoryId");
+        this.authorUsername = requireNonBlank(authorUsername, "authorUsername");
+        this.createdAt = Objects.requireNonNull(createdAt, "createdAt cannot be null");
+        this.versions = checkHistory(new ArrayList<>(versions), versions.size());
+        this.latestVersionNumber = this.versions.size();
+    }
+
+    /**
+     * Creates a document whose versions are only read, through {@code historyLoader}, the first time
+     * they are needed. Until then the document costs no more memory than its header.
+     *
+     * @param historyLoader supplies every version oldest first, ending with {@code latestVersionNumber}
+     */
+    public Document(
+            String id,
+            String title,
+            String categoryId,
+            String authorUsername,
+            LocalDateTime createdAt,
+            int latestVersionNumber,
+            Supplier<List<DocumentVersion>> historyLoader
+    ) {
+        this.id = requireNonBlank(id, "id");
+        this.title = requireNonBlank(title, "title");
+        this.normalizedTitle = TextUtil.normalize(title);
+        this.categoryId = requireNonBlank(categoryId, "categoryId");
+        this.authorUsername = requireNonBlank(authorUsername, "authorUsername");
+        this.createdAt = Objects.requireNonNull(createdAt, "createdAt cannot be null");
+        if (latestVersionNumber < 1) {
+            throw new IllegalArgumentException("latestVersionNumber must be >= 1");
+        }
+        this.latestVersionNumber = latestVersionNumber;
+        this.historyLoader = Objects.requireNonNull(historyLoader, "historyLoader cannot be null");
     }
 
     public String getId() {
@@ -40,6 +119,11 @@ public class Document {
         return title;
     }
 
+    /** The title as compared by searches and uniqueness checks; see {@link TextUtil#normalize}. */
+    public String getNormalizedTitle() {
+        return normalizedTitle;
+    }
+
     public String getCategoryId() {
         return categoryId;
     }
@@ -52,12 +136,18 @@ public class Document {
         return createdAt;
     }
 
+    // Changes on every modification; see Revisions.
+    public long getRevision() {
+        return revision;
+    }
+
     public int getLatestVersionNumber() {
-        return getLatestVersion().getVersionNumber();
+        return latestVersionNumber;
     }
 
     public DocumentVersion getLatestVersion() {
-        return versions.get(versions.size() - 1);
+        List<DocumentVersion> history = history();
+        return history.get(history.size() - 1);
     }
 
     public String getLatestContent() {
@@ -65,7 +155,7 @@ public class Document {
     }
 
     public List<DocumentVersion> getVersions() {
-        return Collections.unmodifiableList(versions);
+        return Collections.unmodifiableList(history());
     }
 
     // Returns up to maxCount versions, ordered from newest to oldest.
@@ -73,16 +163,108 @@ public class Document {
         if (maxCount < 1) {
             throw new IllegalArgumentException("maxCount must be >= 1");
         }
-        int fromIndex = Math.max(versions.size() - maxCount, 0);
-        List<DocumentVersion> sub = versions.subList(fromIndex, versions.size());
+        List<DocumentVersion> history = history();
+        int fromIndex = Math.max(history.size() - maxCount, 0);
+        List<DocumentVersion> sub = history.subList(fromIndex, history.size());
         List<DocumentVersion> result = new ArrayList<>(sub);
         Collections.reverse(result);
         return Collections.unmodifiableList(result);
     }
 
     public void addNewVersion(String newContent, LocalDateTime timestamp) {
-        int nextVersionNumber = getLatestVersionNumber() + 1;
-        versions.add(new DocumentVersion(nextVersionNumber, Objects.requireNonNull(timestamp, "timestamp cannot be null"), newContent));
+        addNewVersion(new DocumentVersion(latestVersionNumber + 1, Objects.requireNonNull(timestamp, "timestamp cannot be null"), newContent));
+    }
+
+    public void addNewVersion(Content newContent, LocalDateTime timestamp) {
+        addNewVersion(new DocumentVersion(latestVersionNumber + 1, Objects.requireNonNull(timestamp, "timestamp cannot be null"), newContent));
+    }
+
+    /**
+     * Makes the versions reference their contents through {@code store}, sharing one instance per
+     * distinct text. A lazily loaded history is attached once it is read.
+     */
+    public void attachContents(ContentStore store) {
+        contentStore = Objects.requireNonNull(store, "store cannot be null");
+        if (versions != null) shareContents();
+    }
+
+    /** Drops the references taken by {@link #attachContents}, e.g. when the document is deleted. */
+    public void releaseContents() {
+        if (contentStore == null) return;
+        if (versions != null) {
+            for (DocumentVersion v : versions) {
+                if (v.getStoredContent() != null) contentStore.release(v.getStoredContent());
+            }
+        }
+        contentStore = null;
+    }
+
+    /**
+     * Stores every version but the keyframes and the latest as a delta against its successor, where that
+     * is smaller. New versions are handled as they are added; this is for histories read from storage
+     * that keeps full texts only.
+     */
+    public void compactHistory() {
+        List<DocumentVersion> history = history();
+        for (int i = 0; i < history.size() - 1; i++) storeAsDelta(history.get(i), history.get(i + 1));
+    }
+
+    private void addNewVersion(DocumentVersion version) {
+        List<DocumentVersion> history = history();
+        if (contentStore != null) share(version);
+        DocumentVersion previous = history.get(history.size() - 1);
+        history.add(version);
+        latestVersionNumber = version.getVersionNumber();
+        storeAsDelta(previous, version);
+        revision = Revisions.next();
+    }
+
+
+    private void storeAsDelta(DocumentVersion version, DocumentVersion next) {
+        if ((version.getVersionNumber() - 1) % KEYFRAME_INTERVAL == 0) return;
+        Content dropped = version.storeAsDelta(next);
+        if (dropped != null && contentStore != null) contentStore.release(dropped);
+    }
+
+    private void shareContents() {
+        for (DocumentVersion v : versions) share(v);
+    }
+
+    private void share(DocumentVersion v) {
+        if (v.getStoredContent() != null) v.shareContent(contentStore.acquire(v.getStoredContent()));
+    }
+
+    private List<DocumentVersion> history() {
+        List<DocumentVersion> history = versions;
+        return history != null ? history : loadHistory();
+    }
+
+    // Concurrent readers may get here together; the history is only published once it is complete.
+    private synchronized List<DocumentVersion> loadHistory() {
+        if (versions != null) return versions;
+        List<DocumentVersion> history = checkHistory(new ArrayList<>(historyLoader.get()), latestVersionNumber);
+        for (int i = 0; i < history.size() - 1; i++) storeAsDelta(history.get(i), history.get(i + 1));
+        if (contentStore != null) {
+            for (DocumentVersion v : history) share(v);
+        }
+        historyLoader = null;
+        versions = history;
+        return history;
+    }
+
+    private List<DocumentVersion> checkHistory(List<DocumentVersion> history, int expectedLatest) {
+        for (int i = 0; i < history.size(); i++) {
+            if (history.get(i).getVersionNumber() != i + 1) {
+                throw new IllegalStateException("Version history of document " + id + " is not numbered 1.." + history.size());
+            }
+        }
+        if (history.isEmpty() || history.size() != expectedLatest) {
+            throw new IllegalStateException("Version history of document " + id + " does not end at version " + expectedLatest);
+        }
+        if (history.get(history.size() - 1).getStoredContent() == null) {
+            throw new IllegalStateException("Latest version of document " + id + " is not stored in full");
+        }
+        return history;
     }
 
     @Override
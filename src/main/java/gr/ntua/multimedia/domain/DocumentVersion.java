@@ -3,18 +3,45 @@ package gr.ntua.multimedia.domain;
 import java.time.LocalDateTime;
 import java.util.Objects;
 
+/**
+ * One version of a document. Its text is stored either in full or, to save memory on long histories,
+ * as a {@link Delta} that rebuilds it from the text of the next (newer) version; {@link #getContent()}
+ * hides the difference.
+ */
 public class DocumentVersion {
     private final int versionNumber;
     private final LocalDateTime createdAt;
-    private final String content;
+    private Content content;            // null while stored as a delta
+    private Delta delta;
+    private DocumentVersion next;
 
     public DocumentVersion(int versionNumber, LocalDateTime createdAt, String content) {
+        this(versionNumber, createdAt, Content.of(requireNonBlank(content, "content")));
+    }
+
+    public DocumentVersion(int versionNumber, LocalDateTime createdAt, Content content) {
+        if (versionNumber < 1) {
+            throw new IllegalArgumentException("versionNumber must be >= 1");
+        }
+        this.versionNumber = versionNumber;
+        this.createdAt = Objects.requireNonNull(createdAt, "createdAt cannot be null");
+        this.content = Objects.requireNonNull(content, "content cannot be null");
+        requireNonBlank(content.getText(), "content");
+    }
+
+    /**
+     * Creates a version stored as a delta, e.g. when reading back a stored history.
+     *
+     * @param next the following version, whose text {@code delta} is applied to
+     */
+    public DocumentVersion(int versionNumber, LocalDateTime createdAt, Delta delta, DocumentVersion next) {
         if (versionNumber < 1) {
             throw new IllegalArgumentException("versionNumber must be >= 1");
         }
         this.versionNumber = versionNumber;
         this.createdAt = Objects.requireNonNull(createdAt, "createdAt cannot be null");
-        this.content = requireNonBlank(content, "content");
+        this.delta = Objects.requireNonNull(delta, "delta cannot be null");
+        this.next = Objects.requireNonNull(next, "next cannot be null");
     }
 
     public int getVersionNumber() {
@@ -26,9 +53,45 @@ public class DocumentVersion {
     }
 
     public String getContent() {
+        return content != null ? content.getText() : delta.applyTo(next.getContent());
+    }
+
+    public String getContentHash() {
+        return content != null ? content.getHash() : Content.of(getContent()).getHash();
+    }
+
+    /** The full content, or null if this version is stored as a delta. */
+    public Content getStoredContent() {
         return content;
     }
 
+    /** The delta against the next version, or null if this version is stored in full. */
+    public Delta getDelta() {
+        return delta;
+    }
+
+    /**
+     * Switches to storing this version as a delta against {@code next}, unless the delta would not be
+     * smaller than the text itself.
+     *
+     * @return the full content that is no longer held, or null if nothing changed
+     */
+    Content storeAsDelta(DocumentVersion next) {
+        if (content == null) return null;
+        Delta d = Delta.between(next.getContent(), content.getText());
+        if (d.encoded().length() >= content.getText().length()) return null;
+        Content dropped = content;
+        this.delta = d;
+        this.next = next;
+        this.content = null;
+        return dropped;
+    }
+
+    // Swaps in the shared instance of an equal content.
+    void shareContent(Content shared) {
+        this.content = shared;
+    }
+
     @Override
     public String toString() {
         return "DocumentVersion{" +
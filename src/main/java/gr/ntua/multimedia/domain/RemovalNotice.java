@@ -0,0 +1,41 @@
+package gr.ntua.multimedia.domain;
+
+import java.util.Objects;
+
+/**
+ * Tells a follower that a document they followed was deleted, naming it as it was at the time.
+ */
+public final class RemovalNotice {
+    private final String title;
+    private final String categoryName;
+
+    public RemovalNotice(String title, String categoryName) {
+        this.title = Objects.requireNonNull(title, "title cannot be null");
+        this.categoryName = Objects.requireNonNull(categoryName, "categoryName cannot be null");
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RemovalNotice)) {
+            return false;
+        }
+        RemovalNotice other = (RemovalNotice) o;
+        return title.equals(other.title) && categoryName.equals(other.categoryName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, categoryName);
+    }
+}
@@ -0,0 +1,17 @@
+package gr.ntua.multimedia.domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of revision stamps for domain objects. Stamps are unique across all objects, so an object
+ * that replaces another one (e.g. a rebuilt user) never shares its predecessor's revision.
+ */
+final class Revisions {
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private Revisions() {}
+
+    static long next() {
+        return COUNTER.incrementAndGet();
+    }
+}
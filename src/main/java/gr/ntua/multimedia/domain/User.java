@@ -1,21 +1,39 @@
 package gr.ntua.multimedia.domain;
 
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public abstract class User {
+    /** Once this many removal notices are pending, the oldest is dropped for every new one. */
+    public static final int MAX_REMOVAL_NOTICES = 100;
+    /** Once this many updated documents are listed, the one listed first is dropped for every new one. */
+    public static final int MAX_UPDATED_DOCUMENTS = 100;
+
     private final String username;
     private final String passwordHash;
     private final String firstName;
     private final String lastName;
+    private final String normalizedName;
     private final Set<String> allowedCategoryIds;
     private final Set<String> followedDocumentIds;
     private final Map<String, Integer> lastSeenVersionByDocId;
+    private final Deque<RemovalNotice> removalNotices = new ArrayDeque<>();
+    private final Set<String> updatedDocumentIds = new LinkedHashSet<>();
+    private long revision = Revisions.next();
 
     protected User(
             String username,
@@ -30,6 +48,7 @@ public abstract class User {
         this.passwordHash = requireNonBlank(passwordHash, "passwordHash");
         this.firstName = requireNonBlank(firstName, "firstName");
         this.lastName = requireNonBlank(lastName, "lastName");
+        this.normalizedName = TextUtil.normalize(firstName + " " + lastName);
 
         this.allowedCategoryIds = new HashSet<>();
         for (String categoryId : Objects.requireNonNull(allowedCategoryIds, "allowedCategoryIds cannot be null")) {
@@ -68,6 +87,11 @@ public abstract class User {
         return lastName;
     }
 
+    /** First and last name as compared by searches; see {@link TextUtil#normalize}. */
+    public String getNormalizedName() {
+        return normalizedName;
+    }
+
     public String getPasswordHash() {
         return passwordHash;
     }
@@ -80,26 +104,40 @@ public abstract class User {
         return Collections.unmodifiableSet(allowedCategoryIds);
     }
 
+    // Changes on every modification; see Revisions.
+    public long getRevision() {
+        return revision;
+    }
+
     public boolean canAccessCategory(String categoryId) {
         return allowedCategoryIds.contains(requireNonBlank(categoryId, "categoryId"));
     }
 
     protected void grantCategoryAccess(String categoryId) {
-        allowedCategoryIds.add(requireNonBlank(categoryId, "categoryId"));
+        if (allowedCategoryIds.add(requireNonBlank(categoryId, "categoryId"))) {
+            revision = Revisions.next();
+        }
     }
 
     protected void revokeCategoryAccess(String categoryId) {
-        allowedCategoryIds.remove(requireNonBlank(categoryId, "categoryId"));
+        if (allowedCategoryIds.remove(requireNonBlank(categoryId, "categoryId"))) {
+            revision = Revisions.next();
+        }
     }
 
     public void followDocument(String documentId) {
-        followedDocumentIds.add(requireNonBlank(documentId, "documentId"));
+        if (followedDocumentIds.add(requireNonBlank(documentId, "documentId"))) {
+            revision = Revisions.next();
+        }
     }
 
     public void unfollowDocument(String documentId) {
         String docId = requireNonBlank(documentId, "documentId");
-        followedDocumentIds.remove(docId);
-        lastSeenVersionByDocId.remove(docId);
+        boolean changed = followedDocumentIds.remove(docId);
+        changed |= lastSeenVersionByDocId.remove(docId) != null;
+        if (changed) {
+            revision = Revisions.next();
+        }
     }
 
     public boolean isFollowing(String documentId) {
@@ -111,7 +149,10 @@ public abstract class User {
         if (versionNumber < 1) {
             throw new IllegalArgumentException("versionNumber must be >= 1");
         }
-        lastSeenVersionByDocId.put(docId, versionNumber);
+        Integer previous = lastSeenVersionByDocId.put(docId, versionNumber);
+        if (previous == null || previous != versionNumber) {
+            revision = Revisions.next();
+        }
     }
 
     public OptionalInt lastSeenVersion(String documentId) {
@@ -131,6 +172,98 @@ public abstract class User {
         return currentVersionNumber > lastSeen;
     }
 
+    /** Removal notices not yet shown to the user, oldest first. */
+    public List<RemovalNotice> getRemovalNotices() {
+        return List.copyOf(removalNotices);
+    }
+
+    public boolean hasRemovalNotices() {
+        return !removalNotices.isEmpty();
+    }
+
+    public int getRemovalNoticeCount() {
+        return removalNotices.size();
+    }
+
+    public void addRemovalNotice(RemovalNotice notice) {
+        removalNotices.addLast(Objects.requireNonNull(notice, "notice cannot be null"));
+        if (removalNotices.size() > MAX_REMOVAL_NOTICES) {
+            removalNotices.removeFirst();
+        }
+        revision = Revisions.next();
+    }
+
+    public void clearRemovalNotices() {
+        if (!removalNotices.isEmpty()) {
+            removalNotices.clear();
+            revision = Revisions.next();
+        }
+    }
+
+    /** Followed documents listed as having versions the user has not seen, in the order they were listed. */
+    public List<String> getUpdatedDocumentIds() {
+        return List.copyOf(updatedDocumentIds);
+    }
+
+    public boolean isListedAsUpdated(String documentId) {
+        return updatedDocumentIds.contains(requireNonBlank(documentId, "documentId"));
+    }
+
+    /**
+     * Lists a document as updated, unless it already is.
+     *
+     * @return the id dropped to stay within {@link #MAX_UPDATED_DOCUMENTS}, or {@code null} if none was
+     */
+    public String listAsUpdated(String documentId) {
+        if (!updatedDocumentIds.add(requireNonBlank(documentId, "documentId"))) {
+            return null;
+        }
+        revision = Revisions.next();
+        if (updatedDocumentIds.size() <= MAX_UPDATED_DOCUMENTS) {
+            return null;
+        }
+        String dropped = updatedDocumentIds.iterator().next();
+        updatedDocumentIds.remove(dropped);
+        return dropped;
+    }
+
+    public boolean unlistAsUpdated(String documentId) {
+        if (!updatedDocumentIds.remove(requireNonBlank(documentId, "documentId"))) {
+            return false;
+        }
+        revision = Revisions.next();
+        return true;
+    }
+
+    /**
+     * Replaces the listed documents with the given ones, kept as given, e.g. as read back from storage.
+     * See {@link #retainListedAsUpdated}.
+     */
+    public void restoreUpdatedDocuments(Collection<String> documentIds) {
+        updatedDocumentIds.clear();
+        for (String docId : Objects.requireNonNull(documentIds, "documentIds cannot be null")) {
+            updatedDocumentIds.add(requireNonBlank(docId, "documentIds element"));
+        }
+        revision = Revisions.next();
+    }
+
+    /**
+     * Drops the listed documents that fail {@code stillUpdated}, then the ones listed first beyond
+     * {@link #MAX_UPDATED_DOCUMENTS}.
+     */
+    public void retainListedAsUpdated(Predicate<String> stillUpdated) {
+        boolean changed = updatedDocumentIds.removeIf(stillUpdated.negate());
+        Iterator<String> it = updatedDocumentIds.iterator();
+        for (int excess = updatedDocumentIds.size() - MAX_UPDATED_DOCUMENTS; excess > 0; excess--) {
+            it.next();
+            it.remove();
+            changed = true;
+        }
+        if (changed) {
+            revision = Revisions.next();
+        }
+    }
+
     public abstract int maxVisibleVersions();
 
     public Map<String, Integer> getLastSeenVersionByDocId() {
@@ -0,0 +1,19 @@
+package gr.ntua.multimedia.exception;
+
+/**
+ * Signalled to a change stream subscriber whose next event is no longer retained, because it fell too far
+ * behind or asked to resume from too far back. Events from {@link #getFirstRetainedSequence()} on can still
+ * be read; whatever came before has to be recovered from the stored state instead.
+ */
+public class ChangesExpiredException extends RuntimeException {
+    private final long firstRetainedSequence;
+
+    public ChangesExpiredException(String message, long firstRetainedSequence) {
+        super(message);
+        this.firstRetainedSequence = firstRetainedSequence;
+    }
+
+    public long getFirstRetainedSequence() {
+        return firstRetainedSequence;
+    }
+}
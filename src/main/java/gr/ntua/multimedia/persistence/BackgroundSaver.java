@@ -0,0 +1,124 @@
+package gr.ntua.multimedia.persistence;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs saves on a single background thread and coalesces bursts of requests.
+ * <p>
+ * The state is captured on the calling thread, so the caller may keep mutating it right away.
+ * While a save is waiting to start, newer requests replace its captured state and share its
+ * future, so a burst of requests results in one write of the latest state.
+ */
+public class BackgroundSaver implements AutoCloseable {
+    /**
+     * Save statistics since the saver was created. Latencies cover the write itself, not the wait in the queue.
+     * {@code lastFailure} is why the latest failed save failed, or {@code null} if none has.
+     */
+    public record Metrics(long requested, long written, long coalesced, long failed,
+                          long lastNanos, long maxNanos, long totalNanos, Throwable lastFailure) {
+        public double averageMillis() {
+            return written == 0 ? 0 : totalNanos / 1_000_000.0 / written;
+        }
+    }
+
+    private final ExecutorService executor;
+
+    private Runnable pendingWrite;
+    private CompletableFuture<Void> pendingFuture;
+
+    private long requested;
+    private long written;
+    private long coalesced;
+    private long failed;
+    private Throwable lastFailure;
+    private long lastNanos;
+    private long maxNanos;
+    private long totalNanos;
+
+    public BackgroundSaver() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "medialab-saver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Schedules a write of state that the caller has already captured.
+     *
+     * @return a future completed once a write including this state has finished, or exceptionally if it
+     *         failed or the saver is closed
+     */
+    public synchronized CompletableFuture<Void> submit(Runnable write) {
+        requested++;
+        pendingWrite = write;
+        if (pendingFuture != null) {
+            coalesced++;
+            return pendingFuture;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingFuture = future;
+        try {
+            executor.execute(this::runPending);
+        } catch (RejectedExecutionException e) {
+            // Nothing will run the write, so later requests must not join its future.
+            pendingWrite = null;
+            pendingFuture = null;
+            failed++;
+            lastFailure = e;
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public synchronized Metrics metrics() {
+        return new Metrics(requested, written, coalesced, failed, lastNanos, maxNanos, totalNanos, lastFailure);
+    }
+
+    /**
+     * Lets already scheduled saves finish and stops the background thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runPending() {
+        Runnable write;
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            write = pendingWrite;
+            future = pendingFuture;
+            pendingWrite = null;
+            pendingFuture = null;
+        }
+        long start = System.nanoTime();
+        try {
+            write.run();
+        } catch (Throwable e) {
+            synchronized (this) {
+                failed++;
+                lastFailure = e;
+            }
+            future.completeExceptionally(e);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            written++;
+            lastNanos = elapsed;
+            maxNanos = Math.max(maxNanos, elapsed);
+            totalNanos += elapsed;
+        }
+        future.complete(null);
+    }
+}
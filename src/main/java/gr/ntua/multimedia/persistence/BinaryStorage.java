@@ -0,0 +1,337 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Delta;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.DocumentVersion;
+import gr.ntua.multimedia.domain.RemovalNotice;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.exception.StorageException;
+import gr.ntua.multimedia.persistence.dto.RemovalNoticeDTO;
+import gr.ntua.multimedia.persistence.dto.UserDTO;
+import gr.ntua.multimedia.service.MediaLabSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot format, an alternative to {@link JsonStorage} that is much cheaper to load.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * int magic ("MLSB"), int format version
+ * int string count,   then per string:   int byte length, UTF-8 bytes
+ * int user count,     then per user:     int record length, record
+ * int category count, then per category: int record length, record
+ * int document count, then per document: int record length, record (its versions included)
+ * </pre>
+ * Since format version 2 every version record carries a kind byte: its string is either the full text
+ * or a {@link Delta} against the next version's text. Version 1 files hold full texts only. Since format
+ * version 3 user records end with the user's pending removal notices, and since version 4 with the
+ * documents listed as updated for them.
+ * Records refer to strings by their index in the table, so every distinct string is stored and decoded
+ * once: ids repeated in follow lists and identical version contents cost four bytes each. Timestamps are
+ * epoch seconds plus nanoseconds, read as UTC since {@link LocalDateTime} carries no zone. Records are
+ * length-prefixed so a reader skips whatever fields a newer format appends.
+ * <p>
+ * Loading maps the file and decodes the records in place; only the string table is copied, into the
+ * {@code String}s themselves.
+ */
+public class BinaryStorage {
+    private static final int MAGIC = 0x4D4C5342;
+    private static final int FORMAT_VERSION = 4;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    private final Path filePath;
+
+    public BinaryStorage(Path filePath) {
+        this.filePath = filePath;
+    }
+
+    public synchronized void save(MediaLabSystem system) {
+        Path tmp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(filePath.toAbsolutePath().getParent());
+            // Records are encoded first, because only then is the string table they refer to complete.
+            Encoder body = system.readAtomically(() -> encode(system));
+
+            try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(body.strings.size());
+                for (String s : body.strings) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                body.records.writeTo(out);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(tmp, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            throw new StorageException("Failed to save data", e);
+        }
+    }
+
+    private static Encoder encode(MediaLabSystem system) {
+        try {
+            Encoder body = new Encoder();
+            body.section(system.getUsers().values(), body::user);
+            body.section(system.getCategories().values(), body::category);
+            body.section(system.getDocuments().values(), body::document);
+            return body;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public MediaLabSystem loadOrCreateDefault() {
+        if (!Files.exists(filePath)) {
+            MediaLabSystem system = new MediaLabSystem();
+            save(system);
+            return system;
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot too large to map");
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Decoder(buf).system();
+        } catch (Exception e) {
+            throw new StorageException("Failed to load data", e);
+        }
+    }
+
+    private interface RecordWriter<T> {
+        void write(T entity) throws IOException;
+    }
+
+    private static final class Encoder {
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> indexes = new HashMap<>();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream(1 << 16);
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(record);
+        private final DataOutputStream recordsOut = new DataOutputStream(records);
+
+        <T> void section(Collection<T> entities, RecordWriter<T> writer) throws IOException {
+            recordsOut.writeInt(entities.size());
+            for (T e : entities) {
+                record.reset();
+                writer.write(e);
+                recordsOut.writeInt(record.size());
+                record.writeTo(recordsOut);
+            }
+        }
+
+        void user(User u) throws IOException {
+            string(u.getUsername());
+            string(u.getPasswordHash());
+            string(u.getFirstName());
+            string(u.getLastName());
+            string(u.getRoleName());
+            out.writeInt(u.getAllowedCategoryIds().size());
+            for (String id : u.getAllowedCategoryIds()) string(id);
+            out.writeInt(u.getFollowedDocumentIds().size());
+            for (String id : u.getFollowedDocumentIds()) string(id);
+            out.writeInt(u.getLastSeenVersionByDocId().size());
+            for (Map.Entry<String, Integer> e : u.getLastSeenVersionByDocId().entrySet()) {
+                string(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            List<RemovalNotice> notices = u.getRemovalNotices();
+            out.writeInt(notices.size());
+            for (RemovalNotice n : notices) {
+                string(n.getTitle());
+                string(n.getCategoryName());
+            }
+            List<String> updated = u.getUpdatedDocumentIds();
+            out.writeInt(updated.size());
+            for (String id : updated) string(id);
+        }
+
+        void category(Category c) throws IOException {
+            string(c.getId());
+            string(c.getName());
+        }
+
+        void document(Document d) throws IOException {
+            string(d.getId());
+            string(d.getTitle());
+            string(d.getCategoryId());
+            string(d.getAuthorUsername());
+            time(d.getCreatedAt());
+            List<DocumentVersion> versions = d.getVersions();
+            out.writeInt(versions.size());
+            for (DocumentVersion v : versions) {
+                out.writeInt(v.getVersionNumber());
+                time(v.getCreatedAt());
+                if (v.getDelta() != null) {
+                    out.writeByte(DELTA);
+                    string(v.getDelta().encoded());
+                } else {
+                    out.writeByte(FULL);
+                    string(v.getContent());
+                }
+            }
+        }
+
+        private void string(String s) throws IOException {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.add(s);
+                indexes.put(s, index);
+            }
+            out.writeInt(index);
+        }
+
+        private void time(LocalDateTime t) throws IOException {
+            out.writeLong(t.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(t.getNano());
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer buf;
+        private int version;
+        private String[] strings;
+
+        Decoder(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        MediaLabSystem system() throws IOException {
+            if (buf.getInt() != MAGIC) throw new IOException("Not a binary snapshot");
+            version = buf.getInt();
+            if (version < 1 || version > FORMAT_VERSION) throw new IOException("Unsupported snapshot format version " + version);
+            readStrings();
+
+            int userCount = buf.getInt();
+            Map<String, User> userMap = new HashMap<>(userCount * 4 / 3 + 1);
+            for (int i = 0; i < userCount; i++) {
+                int end = recordEnd();
+                User user = user();
+                userMap.put(user.getUsername(), user);
+                buf.position(end);
+            }
+            int categoryCount = buf.getInt();
+            Map<String, Category> categoryMap = new HashMap<>(categoryCount * 4 / 3 + 1);
+            for (int i = 0; i < categoryCount; i++) {
+                int end = recordEnd();
+                Category category = new Category(string(), string());
+                categoryMap.put(category.getId(), category);
+                buf.position(end);
+            }
+            int documentCount = buf.getInt();
+            Map<String, Document> documentMap = new HashMap<>(documentCount * 4 / 3 + 1);
+            for (int i = 0; i < documentCount; i++) {
+                int end = recordEnd();
+                Document doc = document();
+                if (doc != null) documentMap.put(doc.getId(), doc);
+                buf.position(end);
+            }
+            return new MediaLabSystem(userMap, categoryMap, documentMap);
+        }
+
+        private void readStrings() {
+            int count = buf.getInt();
+            strings = new String[count];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int length = buf.getInt();
+                if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+                buf.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        private int recordEnd() {
+            int length = buf.getInt();
+            return buf.position() + length;
+        }
+
+        private User user() {
+            String username = string(), passwordHash = string(), firstName = string(), lastName = string(), role = string();
+            List<String> allowed = strings(buf.getInt());
+            List<String> followed = strings(buf.getInt());
+            int seenCount = buf.getInt();
+            Map<String, Integer> seen = new HashMap<>(seenCount * 4 / 3 + 1);
+            for (int i = 0; i < seenCount; i++) seen.put(string(), buf.getInt());
+            List<RemovalNoticeDTO> notices = new ArrayList<>();
+            if (version >= 3) {
+                int noticeCount = buf.getInt();
+                for (int i = 0; i < noticeCount; i++) notices.add(new RemovalNoticeDTO(string(), string()));
+            }
+            List<String> updated = version >= 4 ? strings(buf.getInt()) : null;
+            return StoreRecords.toUser(new UserDTO(username, passwordHash, firstName, lastName, role, allowed, followed,
+                    seen, notices, updated));
+        }
+
+        private Document document() {
+            String id = string(), title = string(), categoryId = string(), authorUsername = string();
+            LocalDateTime createdAt = time();
+            int versionCount = buf.getInt();
+            if (versionCount == 0) return null;
+            int[] numbers = new int[versionCount];
+            LocalDateTime[] times = new LocalDateTime[versionCount];
+            boolean[] deltas = new boolean[versionCount];
+            String[] texts = new String[versionCount];
+            for (int i = 0; i < versionCount; i++) {
+                numbers[i] = buf.getInt();
+                times[i] = time();
+                deltas[i] = version >= 2 && buf.get() == DELTA;
+                texts[i] = string();
+            }
+            // Deltas refer to the following version, so versions are built newest first.
+            DocumentVersion[] versions = new DocumentVersion[versionCount];
+            for (int i = versionCount - 1; i >= 0; i--) {
+                if (!deltas[i]) {
+                    versions[i] = new DocumentVersion(numbers[i], times[i], texts[i]);
+                } else if (i + 1 < versionCount) {
+                    versions[i] = new DocumentVersion(numbers[i], times[i], Delta.decode(texts[i]), versions[i + 1]);
+                } else {
+                    throw new IllegalArgumentException("Latest version of document " + id + " is stored as a delta");
+                }
+            }
+            Document doc = new Document(id, title, categoryId, authorUsername, createdAt, Arrays.asList(versions));
+            if (version == 1) doc.compactHistory();
+            return doc;
+        }
+
+        private List<String> strings(int count) {
+            List<String> out = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) out.add(string());
+            return out;
+        }
+
+        private String string() {
+            return strings[buf.getInt()];
+        }
+
+        private LocalDateTime time() {
+            long seconds = buf.getLong();
+            return LocalDateTime.ofEpochSecond(seconds, buf.getInt(), ZoneOffset.UTC);
+        }
+    }
+}
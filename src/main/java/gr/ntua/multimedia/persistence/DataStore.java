@@ -1,9 +1,10 @@
 package gr.ntua.multimedia.persistence;
 
 import gr.ntua.multimedia.persistence.dto.CategoryDTO;
+import gr.ntua.multimedia.persistence.dto.ContentDTO;
 import gr.ntua.multimedia.persistence.dto.DocumentDTO;
 import gr.ntua.multimedia.persistence.dto.UserDTO;
 
 import java.util.List;
 
-public record DataStore(List<UserDTO> users, List<CategoryDTO> categories, List<DocumentDTO> documents) {}
\ No newline at end of file
+public record DataStore(List<ContentDTO> contents, List<UserDTO> users, List<CategoryDTO> categories, List<DocumentDTO> documents) {}
@@ -0,0 +1,146 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.exception.StorageException;
+import gr.ntua.multimedia.service.MediaLabSystem;
+import gr.ntua.multimedia.service.Mutation;
+import gr.ntua.multimedia.service.MutationListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage that records every facade mutation in an append-only log next to the JSON snapshot.
+ * <p>
+ * Opening loads the snapshot and replays the log entries written after it, so nothing acknowledged
+ * by the log is lost on a crash.
+ * <p>
+ * {@link #checkpoint()} captures the live state on the calling thread and writes it as the new
+ * snapshot through a {@link BackgroundSaver}, then drops the log entries it covers. A background task
+ * checkpoints the same way once the log has grown long enough; its failures are reported by
+ * {@link #saveMetrics()}, and the log keeps every entry until a later checkpoint succeeds. Snapshot
+ * writes never replace a snapshot with one covering fewer log entries.
+ */
+public class JournaledStorage implements AutoCloseable {
+    private static final long COMPACTION_THRESHOLD = 500;
+    private static final long COMPACTION_INTERVAL_SECONDS = 60;
+
+    private final Path logPath;
+    private final JsonStorage snapshotStorage;
+    private final BackgroundSaver saver;
+
+    private MediaLabSystem system;
+    private MutationLog log;
+    private ScheduledExecutorService compactor;
+    private long snapshotSequence;
+
+    private record Captured(DataStore state, long through) {}
+
+    public JournaledStorage(Path snapshotPath, Path logPath) {
+        this.logPath = logPath;
+        this.snapshotStorage = new JsonStorage(snapshotPath, true);
+        this.saver = new BackgroundSaver();
+    }
+
+    /**
+     * Loads the last snapshot, replays the log on top of it and starts journaling the returned system.
+     */
+    public MediaLabSystem open() {
+        JsonStorage.Snapshot snapshot = snapshotStorage.loadSnapshot();
+        system = snapshot.system();
+        snapshotSequence = snapshot.logSequence();
+        try {
+            log = MutationLog.open(logPath, snapshot.logSequence(), system::replay);
+        } catch (IOException e) {
+            throw new StorageException("Failed to replay mutation log", e);
+        }
+        // Every mutation is logged, so change events keep the log's numbering across restarts.
+        system.continueChangesAfter(log.lastSequence());
+        // Once the log cannot record mutations any more, the system stops accepting them.
+        system.addMutationListener(new MutationListener() {
+            @Override
+            public void onMutation(Mutation mutation) {
+                log.append(mutation);
+            }
+
+            @Override
+            public void beforeMutation() {
+                log.requireUsable();
+            }
+        });
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "medialab-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        return system;
+    }
+
+    /**
+     * Blocks until every mutation made so far has been written and synced to disk.
+     */
+    public void sync() {
+        log.sync();
+    }
+
+    /**
+     * Captures the live state and writes it as the new snapshot in the background.
+     *
+     * @return a future completed once the snapshot is on disk and the log entries it covers are dropped
+     */
+    public CompletableFuture<Void> checkpoint() {
+        // Changes are logged while they are made, so the state and the last logged sequence are read together.
+        Captured captured = system.readAtomically(() -> new Captured(snapshotStorage.copyForWrite(system), log.lastSequence()));
+        return saver.submit(() -> commitSnapshot(captured.state(), captured.through()));
+    }
+
+    public BackgroundSaver.Metrics saveMetrics() {
+        return saver.metrics();
+    }
+
+    /**
+     * Folds the current log into a new snapshot of the live state and removes the folded entries from the log.
+     */
+    public void compact() {
+        checkpoint().join();
+    }
+
+    /**
+     * Writes a final snapshot of the live state, empties the log and stops background work.
+     * Must be called once no more mutations are being made.
+     */
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        checkpoint().join();
+        saver.close();
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new StorageException("Failed to close mutation log", e);
+        }
+    }
+
+    // Runs on the saver's single thread, one snapshot at a time.
+    private void commitSnapshot(DataStore state, long through) {
+        if (through <= snapshotSequence) return;
+        snapshotStorage.write(state, through);
+        snapshotSequence = through;
+        try {
+            log.truncateThrough(through);
+        } catch (IOException e) {
+            throw new StorageException("Failed to truncate mutation log", e);
+        }
+    }
+
+    // Failures complete the future exceptionally and are counted by the saver's metrics.
+    private void compactIfNeeded() {
+        if (log.entryCount() >= COMPACTION_THRESHOLD) checkpoint();
+    }
+}
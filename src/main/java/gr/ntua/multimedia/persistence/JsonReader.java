@@ -0,0 +1,291 @@
+package gr.ntua.multimedia.persistence;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming (pull) JSON reader over a {@link Reader}.
+ * <p>
+ * Callers walk the document token by token, so only the value currently being read is
+ * materialised. Escapes understood: the ones written by {@link JsonWriter} plus the standard
+ * JSON set ({@code \t \r \b \f \/ \\uXXXX}); any other escaped character is taken literally,
+ * as the original SimpleJson parser did.
+ */
+final class JsonReader implements AutoCloseable {
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+
+    private Token peeked;
+    private final StringBuilder scratch = new StringBuilder();
+
+    JsonReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) peeked = doPeek();
+        return peeked;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        stackSize--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        stackSize--;
+    }
+
+    boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        stack[stackSize - 1] = DANGLING_NAME;
+        return name;
+    }
+
+    String nextString() throws IOException {
+        Token t = peek();
+        if (t == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        peeked = null;
+        scratch.setLength(0);
+        while (fill(1) && "-0123456789.eE+".indexOf(buf[pos]) >= 0) {
+            scratch.append(buf[pos++]);
+        }
+        if (scratch.isEmpty()) throw syntaxError("Expected number");
+        String num = scratch.toString();
+        if (num.contains(".") || num.contains("e") || num.contains("E")) return (long) Double.parseDouble(num);
+        return Long.parseLong(num);
+    }
+
+    int nextInt() throws IOException {
+        return Math.toIntExact(nextLong());
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        peeked = null;
+        boolean value = buf[pos] == 't';
+        consumeLiteral(value ? "true" : "false");
+        return value;
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        peeked = null;
+        consumeLiteral("null");
+    }
+
+    /** Skips the next value, including every nested value of an object or array. */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> { beginObject(); depth++; }
+                case BEGIN_ARRAY -> { beginArray(); depth++; }
+                case END_OBJECT -> { endObject(); depth--; }
+                case END_ARRAY -> { endArray(); depth--; }
+                case NAME -> nextName();
+                case STRING -> readString();
+                case NUMBER -> nextLong();
+                case BOOLEAN -> nextBoolean();
+                case NULL -> nextNull();
+                case END_DOCUMENT -> throw syntaxError("Unexpected end");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = stack[stackSize - 1];
+        switch (scope) {
+            case EMPTY_ARRAY -> stack[stackSize - 1] = NONEMPTY_ARRAY;
+            case NONEMPTY_ARRAY -> {
+                char c = nextNonWhitespace();
+                if (c == ']') return Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Expected , or ]");
+                pos++;
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                char c = nextNonWhitespace();
+                if (c == '}') return Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected , or }");
+                    pos++;
+                }
+                if (nextNonWhitespace() != '"') throw syntaxError("Expected name");
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected :");
+                pos++;
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+            }
+            case EMPTY_DOCUMENT -> stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            default -> {
+                if (!skipWhitespace()) return Token.END_DOCUMENT;
+                throw syntaxError("Trailing data");
+            }
+        }
+
+        char c = nextNonWhitespace();
+        return switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case '"' -> Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            case ']' -> {
+                if (scope == EMPTY_ARRAY) yield Token.END_ARRAY;
+                throw syntaxError("Unexpected ]");
+            }
+            default -> Token.NUMBER;
+        };
+    }
+
+    private String readString() throws IOException {
+        peeked = null;
+        pos++; // opening quote
+        scratch.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == '"' || c == '\\') break;
+                pos++;
+            }
+            scratch.append(buf, start, pos - start);
+            if (!fill(1)) throw syntaxError("Unterminated string");
+            char c = buf[pos];
+            if (c == '"') {
+                pos++;
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                pos++;
+                scratch.append(readEscape());
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (!fill(1)) throw syntaxError("Unterminated escape");
+        char n = buf[pos++];
+        return switch (n) {
+            case 'n' -> '\n';
+            case 't' -> '\t';
+            case 'r' -> '\r';
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'u' -> {
+                if (!fill(4)) throw syntaxError("Unterminated escape");
+                char decoded = (char) Integer.parseInt(new String(buf, pos, 4), 16);
+                pos += 4;
+                yield decoded;
+            }
+            default -> n;
+        };
+    }
+
+    private void consumeLiteral(String literal) throws IOException {
+        if (!fill(literal.length())) throw syntaxError("Unexpected end");
+        for (int k = 0; k < literal.length(); k++) {
+            if (buf[pos + k] != literal.charAt(k)) throw syntaxError("Expected " + literal);
+        }
+        pos += literal.length();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token actual = peek();
+        if (actual != expected) throw syntaxError("Expected " + expected + " but was " + actual);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = scope;
+    }
+
+    private char nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) throw syntaxError("Unexpected end");
+        return buf[pos];
+    }
+
+    private boolean skipWhitespace() throws IOException {
+        while (fill(1)) {
+            if (!Character.isWhitespace(buf[pos])) return true;
+            pos++;
+        }
+        return false;
+    }
+
+    /** Ensures at least {@code minimum} unread chars are buffered; returns false at end of input. */
+    private boolean fill(int minimum) throws IOException {
+        if (limit - pos >= minimum) return true;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < minimum) {
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read == -1) return false;
+            limit += read;
+        }
+        return true;
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " (JSON nesting depth " + (stackSize - 1) + ")");
+    }
+}
@@ -1,206 +1,518 @@
 package gr.ntua.multimedia.persistence;
 
-import gr.ntua.multimedia.domain.Admin;
-import gr.ntua.multimedia.domain.Author;
 import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Content;
 import gr.ntua.multimedia.domain.Document;
 import gr.ntua.multimedia.domain.DocumentVersion;
-import gr.ntua.multimedia.domain.SimpleUser;
 import gr.ntua.multimedia.domain.User;
 import gr.ntua.multimedia.exception.StorageException;
 import gr.ntua.multimedia.persistence.dto.CategoryDTO;
+import gr.ntua.multimedia.persistence.dto.ContentDTO;
 import gr.ntua.multimedia.persistence.dto.DocumentDTO;
 import gr.ntua.multimedia.persistence.dto.DocumentVersionDTO;
 import gr.ntua.multimedia.persistence.dto.UserDTO;
 import gr.ntua.multimedia.service.MediaLabSystem;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 public class JsonStorage {
+    /** A loaded store together with the last mutation log sequence it already includes. */
+    record Snapshot(MediaLabSystem system, long logSequence) {}
+
+    /**
+     * Where the time of a load went, in nanoseconds. Reading (file I/O and UTF-8 decoding), parsing and
+     * binding users and categories run on the loading thread. Documents are rebuilt on the fork-join
+     * pool meanwhile: {@code rebuildNanos} is summed over the workers and overlaps the other phases, and
+     * {@code waitNanos} is how long the loading thread still waited for them once parsing was done.
+     */
+    public record LoadStats(int users, int categories, int documents, long readNanos, long parseNanos,
+                            long bindNanos, long rebuildNanos, long waitNanos, long totalNanos) {}
+
+    private static final int REBUILD_CHUNK_SIZE = 256;
+
     private final Path filePath;
+    private final boolean reuseUnchanged;
+    private volatile LoadStats lastLoadStats;
+
+    // Incremental mode: DTOs from the previous capture, reused while the entity's revision is unchanged.
+    private final Object captureLock = new Object();
+    private Map<String, CapturedDto> captured = new HashMap<>();
+
+    // Incremental mode: byte range of every DTO in the file written last, keyed by DTO identity.
+    private Map<Object, long[]> segments = new IdentityHashMap<>();
+    private long writtenSize = -1;
+    private FileTime writtenTime;
+
+    private record CapturedDto(long revision, Object dto) {}
+
+    private record RebuiltChunk(List<Document> documents, long nanos) {}
 
     public JsonStorage(Path filePath) {
+        this(filePath, false);
+    }
+
+    /**
+     * @param filePath       the JSON file to load from and save to
+     * @param reuseUnchanged if true, users, categories and documents whose revision did not change since the
+     *                       previous save are neither captured nor serialized again; their bytes are copied
+     *                       from the previously written file instead
+     */
+    public JsonStorage(Path filePath, boolean reuseUnchanged) {
         this.filePath = filePath;
+        this.reuseUnchanged = reuseUnchanged;
     }
 
     public void save(MediaLabSystem system) {
+        write(captureForWrite(system), 0);
+    }
+
+    /**
+     * Copies the current state into DTOs. Versions are immutable and their contents are shared,
+     * so this is cheap enough to hold off changes for while it runs, before writing elsewhere.
+     */
+    static DataStore capture(MediaLabSystem system) {
+        return system.readAtomically(() -> copy(system));
+    }
+
+    private static DataStore copy(MediaLabSystem system) {
+        List<UserDTO> users = new ArrayList<>();
+        for (User u : system.getUsers().values()) users.add(StoreRecords.toDto(u));
+        List<CategoryDTO> categories = new ArrayList<>();
+        for (Category c : system.getCategories().values()) categories.add(StoreRecords.toDto(c));
+        List<DocumentDTO> documents = new ArrayList<>();
+        for (Document d : system.getDocuments().values()) documents.add(toDto(d));
+        // After the documents, whose histories may only now have been read and their contents registered.
+        List<ContentDTO> contents = new ArrayList<>();
+        for (Content c : system.getContentStore().contents()) contents.add(toDto(c));
+        return new DataStore(contents, users, categories, documents);
+    }
+
+    /**
+     * Like {@link #capture}, but in incremental mode hands out the previous DTO of every unchanged entity.
+     */
+    DataStore captureForWrite(MediaLabSystem system) {
+        return system.readAtomically(() -> copyForWrite(system));
+    }
+
+    /** {@link #captureForWrite} for a caller already within {@link MediaLabSystem#readAtomically}. */
+    DataStore copyForWrite(MediaLabSystem system) {
+        if (!reuseUnchanged) return copy(system);
+        synchronized (captureLock) {
+            Map<String, CapturedDto> next = new HashMap<>(captured.size() * 4 / 3 + 1);
+            List<UserDTO> users = new ArrayList<>();
+            for (User u : system.getUsers().values()) {
+                users.add(reuseOrCapture(next, "u:" + u.getUsername(), u.getRevision(), () -> StoreRecords.toDto(u)));
+            }
+            List<CategoryDTO> categories = new ArrayList<>();
+            for (Category c : system.getCategories().values()) {
+                categories.add(reuseOrCapture(next, "c:" + c.getId(), c.getRevision(), () -> StoreRecords.toDto(c)));
+            }
+            List<DocumentDTO> documents = new ArrayList<>();
+            for (Document d : system.getDocuments().values()) {
+                documents.add(reuseOrCapture(next, "d:" + d.getId(), d.getRevision(), () -> toDto(d)));
+            }
+            List<ContentDTO> contents = new ArrayList<>();
+            for (Content c : system.getContentStore().contents()) {
+                // A hash always denotes the same text, so a captured content never goes stale.
+                contents.add(reuseOrCapture(next, "h:" + c.getHash(), 0, () -> toDto(c)));
+            }
+            captured = next;
+            return new DataStore(contents, users, categories, documents);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T reuseOrCapture(Map<String, CapturedDto> next, String key, long revision, Supplier<T> toDto) {
+        CapturedDto previous = captured.get(key);
+        CapturedDto current = (previous != null && previous.revision() == revision)
+                ? previous
+                : new CapturedDto(revision, toDto.get());
+        next.put(key, current);
+        return (T) current.dto();
+    }
+
+    private static DocumentDTO toDto(Document d) {
+        List<DocumentVersionDTO> versions = new ArrayList<>();
+        for (DocumentVersion v : d.getVersions()) versions.add(StoreRecords.toDto(v, true));
+        return new DocumentDTO(d.getId(), d.getTitle(), d.getCategoryId(), d.getAuthorUsername(),
+                d.getCreatedAt().toString(), versions);
+    }
+
+    private static ContentDTO toDto(Content c) {
+        return new ContentDTO(c.getHash(), c.getText());
+    }
+
+    /**
+     * Writes a captured state to a temporary file next to the target, syncs it and atomically moves it
+     * over the target, so the previous file stays intact until the new one is complete.
+     */
+    synchronized void write(DataStore store, long logSequence) {
+        Path tmp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        Map<Object, long[]> written = new IdentityHashMap<>();
         try {
-            Map<String, Object> root = new HashMap<>();
-            root.put("users", usersToJson(system));
-            root.put("categories", categoriesToJson(system));
-            root.put("documents", documentsToJson(system));
-            Files.createDirectories(filePath.getParent());
-            Files.writeString(filePath, SimpleJson.stringify(root));
+            Files.createDirectories(filePath.toAbsolutePath().getParent());
+            try (FileChannel previous = openPreviousForReuse();
+                 FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+                 CountingOutputStream counted = new CountingOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8))) {
+                JsonWriter json = new JsonWriter(out);
+                SegmentOutput output = new SegmentOutput(json, counted, previous, written);
+                json.beginObject();
+                if (logSequence > 0) {
+                    json.name("logSequence").value(logSequence);
+                }
+                // Before the documents, so a reader can resolve their content hashes as it goes.
+                json.name("contents").beginArray();
+                for (ContentDTO c : store.contents()) output.entity(c, () -> StoreRecords.writeContent(json, c));
+                json.endArray();
+                json.name("users").beginArray();
+                for (UserDTO u : store.users()) output.entity(u, () -> StoreRecords.writeUser(json, u));
+                json.endArray();
+                json.name("categories").beginArray();
+                for (CategoryDTO c : store.categories()) output.entity(c, () -> StoreRecords.writeCategory(json, c));
+                json.endArray();
+                json.name("documents").beginArray();
+                for (DocumentDTO d : store.documents()) output.entity(d, () -> writeDocument(json, d));
+                json.endArray();
+                json.endObject();
+                json.flush();
+                counted.flushThrough();
+                fileOut.getFD().sync();
+            }
+            Files.move(tmp, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (reuseUnchanged) {
+                segments = written;
+                writtenSize = Files.size(filePath);
+                writtenTime = Files.getLastModifiedTime(filePath);
+            }
         } catch (IOException | RuntimeException e) {
             throw new StorageException("Failed to save data", e);
         }
     }
 
+    // Byte ranges are only trusted while the file is exactly the one this instance wrote last.
+    private FileChannel openPreviousForReuse() throws IOException {
+        if (!reuseUnchanged || segments.isEmpty()) return null;
+        if (!Files.exists(filePath)
+                || Files.size(filePath) != writtenSize
+                || !Files.getLastModifiedTime(filePath).equals(writtenTime)) {
+            segments = new IdentityHashMap<>();
+            return null;
+        }
+        return FileChannel.open(filePath, StandardOpenOption.READ);
+    }
+
     public MediaLabSystem loadOrCreateDefault() {
+        return loadSnapshot().system();
+    }
+
+    Snapshot loadSnapshot() {
         if (!Files.exists(filePath)) {
             MediaLabSystem system = new MediaLabSystem();
             save(system);
-            return system;
+            return new Snapshot(system, 0);
         }
-        try {
-            Object parsed = SimpleJson.parse(Files.readString(filePath));
-            Map<String, Object> root = castMap(parsed);
-            List<UserDTO> users = parseUsers((List<Object>) root.getOrDefault("users", List.of()));
-            List<CategoryDTO> categories = parseCategories((List<Object>) root.getOrDefault("categories", List.of()));
-            List<DocumentDTO> documents = parseDocuments((List<Object>) root.getOrDefault("documents", List.of()));
-            return rebuildSystem(users, categories, documents);
+        long start = System.nanoTime();
+        // Documents are parsed on this thread and rebuilt in chunks on the fork-join pool while parsing
+        // goes on, so only the DTOs of chunks still waiting for a worker are held in memory.
+        Map<String, Content> contents = new HashMap<>();
+        List<User> users = new ArrayList<>();
+        List<Category> categories = new ArrayList<>();
+        List<ForkJoinTask<RebuiltChunk>> chunks = new ArrayList<>();
+        long logSequence = 0;
+        long bindNanos = 0;
+        long parseEnd;
+        long readNanos;
+        try (TimedReader in = new TimedReader(new InputStreamReader(Files.newInputStream(filePath), StandardCharsets.UTF_8));
+             JsonReader json = new JsonReader(in)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "logSequence" -> logSequence = json.nextLong();
+                    case "contents" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            ContentDTO c = StoreRecords.readContent(json);
+                            contents.put(c.hash(), new Content(c.hash(), c.content()));
+                        }
+                        json.endArray();
+                    }
+                    case "users" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            UserDTO dto = StoreRecords.readUser(json);
+                            long t = System.nanoTime();
+                            users.add(StoreRecords.toUser(dto));
+                            bindNanos += System.nanoTime() - t;
+                        }
+                        json.endArray();
+                    }
+                    case "categories" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            CategoryDTO c = StoreRecords.readCategory(json);
+                            long t = System.nanoTime();
+                            categories.add(new Category(c.id(), c.name()));
+                            bindNanos += System.nanoTime() - t;
+                        }
+                        json.endArray();
+                    }
+                    case "documents" -> {
+                        // The contents table comes first, so workers only ever read it.
+                        List<DocumentDTO> chunk = new ArrayList<>(REBUILD_CHUNK_SIZE);
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            chunk.add(readDocument(json));
+                            if (chunk.size() == REBUILD_CHUNK_SIZE) {
+                                List<DocumentDTO> full = chunk;
+                                chunks.add(ForkJoinPool.commonPool().submit(() -> rebuild(full, contents)));
+                                chunk = new ArrayList<>(REBUILD_CHUNK_SIZE);
+                            }
+                        }
+                        json.endArray();
+                        List<DocumentDTO> last = chunk;
+                        if (!last.isEmpty()) chunks.add(ForkJoinPool.commonPool().submit(() -> rebuild(last, contents)));
+                    }
+                    default -> json.skipValue();
+                }
+            }
+            json.endObject();
+            parseEnd = System.nanoTime();
+            readNanos = in.nanos;
         } catch (Exception e) {
             throw new StorageException("Failed to load data", e);
         }
-    }
 
-    private MediaLabSystem rebuildSystem(List<UserDTO> users, List<CategoryDTO> categories, List<DocumentDTO> documents) {
-        Map<String, User> userMap = new HashMap<>();
-        for (UserDTO u : users) {
-            Set<String> allowed = Set.copyOf(u.allowedCategoryIds());
-            Set<String> followed = Set.copyOf(u.followedDocumentIds());
-            Map<String, Integer> seen = new HashMap<>(u.lastSeenVersionByDocId());
-            User user = switch (u.role()) {
-                case "ADMIN" -> new Admin(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
-                case "AUTHOR" -> new Author(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
-                default -> new SimpleUser(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
-            };
-            userMap.put(user.getUsername(), user);
-        }
-
-        Map<String, Category> categoryMap = new HashMap<>();
-        for (CategoryDTO c : categories) {
-            categoryMap.put(c.id(), new Category(c.id(), c.name()));
-        }
-
-        Map<String, Document> documentMap = new HashMap<>();
-        for (DocumentDTO d : documents) {
-            List<DocumentVersionDTO> versions = d.versions();
-            versions.sort((a, b) -> Integer.compare(a.versionNumber(), b.versionNumber()));
-            if (versions.isEmpty()) continue;
-            DocumentVersionDTO first = versions.get(0);
-            Document doc = new Document(d.id(), d.title(), d.categoryId(), d.authorUsername(), LocalDateTime.parse(d.createdAt()), first.content());
-            for (int i = 1; i < versions.size(); i++) {
-                DocumentVersionDTO v = versions.get(i);
-                doc.addNewVersion(v.content(), LocalDateTime.parse(v.createdAt()));
+        long waitStart = System.nanoTime();
+        List<RebuiltChunk> rebuilt = new ArrayList<>(chunks.size());
+        int documentCount = 0;
+        try {
+            for (ForkJoinTask<RebuiltChunk> task : chunks) {
+                RebuiltChunk chunk = task.join();
+                rebuilt.add(chunk);
+                documentCount += chunk.documents().size();
             }
-            documentMap.put(doc.getId(), doc);
-        }
-        return new MediaLabSystem(userMap, categoryMap, documentMap);
-    }
-
-    private List<Object> usersToJson(MediaLabSystem system) {
-        List<Object> list = new ArrayList<>();
-        for (User user : system.getUsers().values()) {
-            Map<String, Object> m = new HashMap<>();
-            m.put("username", user.getUsername());
-            m.put("passwordHash", user.getPasswordHash());
-            m.put("firstName", user.getFirstName());
-            m.put("lastName", user.getLastName());
-            m.put("role", user.getRoleName());
-            m.put("allowedCategoryIds", new ArrayList<>(user.getAllowedCategoryIds()));
-            m.put("followedDocumentIds", new ArrayList<>(user.getFollowedDocumentIds()));
-            m.put("lastSeenVersionByDocId", new HashMap<>(user.getLastSeenVersionByDocId()));
-            list.add(m);
-        }
-        return list;
-    }
-
-    private List<Object> categoriesToJson(MediaLabSystem system) {
-        List<Object> list = new ArrayList<>();
-        for (Category c : system.getCategories().values()) {
-            Map<String, Object> m = new HashMap<>();
-            m.put("id", c.getId());
-            m.put("name", c.getName());
-            list.add(m);
-        }
-        return list;
-    }
-
-    private List<Object> documentsToJson(MediaLabSystem system) {
-        List<Object> list = new ArrayList<>();
-        for (Document d : system.getDocuments().values()) {
-            Map<String, Object> m = new HashMap<>();
-            m.put("id", d.getId());
-            m.put("title", d.getTitle());
-            m.put("categoryId", d.getCategoryId());
-            m.put("authorUsername", d.getAuthorUsername());
-            m.put("createdAt", d.getCreatedAt().toString());
-            List<Object> versions = new ArrayList<>();
-            for (DocumentVersion v : d.getVersions()) {
-                Map<String, Object> vm = new HashMap<>();
-                vm.put("versionNumber", v.getVersionNumber());
-                vm.put("createdAt", v.getCreatedAt().toString());
-                vm.put("content", v.getContent());
-                versions.add(vm);
+        } catch (RuntimeException e) {
+            throw new StorageException("Failed to load data", e);
+        }
+        long bindStart = System.nanoTime();
+        long waitNanos = bindStart - waitStart;
+        Map<String, User> userMap = HashMap.newHashMap(users.size());
+        for (User u : users) userMap.put(u.getUsername(), u);
+        Map<String, Category> categoryMap = HashMap.newHashMap(categories.size());
+        for (Category c : categories) categoryMap.put(c.getId(), c);
+        Map<String, Document> documentMap = HashMap.newHashMap(documentCount);
+        long rebuildNanos = 0;
+        for (RebuiltChunk chunk : rebuilt) {
+            for (Document d : chunk.documents()) documentMap.put(d.getId(), d);
+            rebuildNanos += chunk.nanos();
+        }
+        MediaLabSystem system = new MediaLabSystem(userMap, categoryMap, documentMap);
+        long end = System.nanoTime();
+
+        long parseNanos = parseEnd - start - readNanos - bindNanos;
+        bindNanos += end - bindStart;
+        lastLoadStats = new LoadStats(users.size(), categories.size(), documentCount,
+                readNanos, parseNanos, bindNanos, rebuildNanos, waitNanos, end - start);
+        return new Snapshot(system, logSequence);
+    }
+
+    /**
+     * Timings of the most recent load, or null if nothing was loaded yet.
+     */
+    public LoadStats lastLoadStats() {
+        return lastLoadStats;
+    }
+
+    private static RebuiltChunk rebuild(List<DocumentDTO> dtos, Map<String, Content> contents) {
+        long start = System.nanoTime();
+        List<Document> documents = new ArrayList<>(dtos.size());
+        for (DocumentDTO dto : dtos) {
+            Document doc = toDocument(dto, contents);
+            if (doc != null) documents.add(doc);
+        }
+        return new RebuiltChunk(documents, System.nanoTime() - start);
+    }
+
+    private static Document toDocument(DocumentDTO d, Map<String, Content> contents) {
+        List<DocumentVersionDTO> versions = d.versions();
+        versions.sort((a, b) -> Integer.compare(a.versionNumber(), b.versionNumber()));
+        if (versions.isEmpty()) return null;
+        Document doc = new Document(d.id(), d.title(), d.categoryId(), d.authorUsername(), LocalDateTime.parse(d.createdAt()),
+                StoreRecords.toVersions(versions, v -> toContent(v, contents)));
+        // Only files from before deltas and the contents table have every version inline.
+        if (versions.stream().allMatch(v -> v.content() != null)) doc.compactHistory();
+        return doc;
+    }
+
+    // Files written before the contents table existed carry the text inline.
+    private static Content toContent(DocumentVersionDTO v, Map<String, Content> contents) {
+        if (v.contentHash() == null) return Content.of(v.content());
+        Content content = contents.get(v.contentHash());
+        if (content == null) throw new IllegalArgumentException("Unknown content hash " + v.contentHash());
+        return content;
+    }
+
+    private void writeDocument(JsonWriter json, DocumentDTO d) throws IOException {
+        json.beginObject();
+        json.name("id").value(d.id());
+        json.name("title").value(d.title());
+        json.name("categoryId").value(d.categoryId());
+        json.name("authorUsername").value(d.authorUsername());
+        json.name("createdAt").value(d.createdAt());
+        json.name("versions").beginArray();
+        for (DocumentVersionDTO v : d.versions()) StoreRecords.writeVersion(json, v);
+        json.endArray();
+        json.endObject();
+    }
+
+    private static DocumentDTO readDocument(JsonReader json) throws IOException {
+        String id = null, title = null, categoryId = null, authorUsername = null, createdAt = null;
+        List<DocumentVersionDTO> versions = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id" -> id = json.nextString();
+                case "title" -> title = json.nextString();
+                case "categoryId" -> categoryId = json.nextString();
+                case "authorUsername" -> authorUsername = json.nextString();
+                case "createdAt" -> createdAt = json.nextString();
+                case "versions" -> {
+                    json.beginArray();
+                    while (json.hasNext()) versions.add(StoreRecords.readVersion(json));
+                    json.endArray();
+                }
+                default -> json.skipValue();
             }
-            m.put("versions", versions);
-            list.add(m);
         }
-        return list;
+        json.endObject();
+        return new DocumentDTO(id, title, categoryId, authorUsername, createdAt, versions);
     }
 
-    private List<UserDTO> parseUsers(List<Object> values) {
-        List<UserDTO> out = new ArrayList<>();
-        for (Object v : values) {
-            Map<String, Object> m = castMap(v);
-            Map<String, Integer> seen = new HashMap<>();
-            Map<String, Object> seenRaw = castMap(m.getOrDefault("lastSeenVersionByDocId", Map.of()));
-            for (Map.Entry<String, Object> e : seenRaw.entrySet()) {
-                seen.put(e.getKey(), ((Number) e.getValue()).intValue());
+    private interface EntityWriter {
+        void write() throws IOException;
+    }
+
+    /** Writes array elements either by serializing them or by copying their bytes from the previous file. */
+    private final class SegmentOutput {
+        private final JsonWriter json;
+        private final CountingOutputStream counted;
+        private final FileChannel previous;
+        private final Map<Object, long[]> written;
+
+        SegmentOutput(JsonWriter json, CountingOutputStream counted, FileChannel previous, Map<Object, long[]> written) {
+            this.json = json;
+            this.counted = counted;
+            this.previous = previous;
+            this.written = written;
+        }
+
+        void entity(Object dto, EntityWriter serializer) throws IOException {
+            if (!reuseUnchanged) {
+                serializer.write();
+                return;
             }
-            out.add(new UserDTO(
-                    (String) m.get("username"),
-                    (String) m.get("passwordHash"),
-                    (String) m.get("firstName"),
-                    (String) m.get("lastName"),
-                    (String) m.get("role"),
-                    castStringList(m.getOrDefault("allowedCategoryIds", List.of())),
-                    castStringList(m.getOrDefault("followedDocumentIds", List.of())),
-                    seen));
-        }
-        return out;
-    }
-
-    private List<CategoryDTO> parseCategories(List<Object> values) {
-        List<CategoryDTO> out = new ArrayList<>();
-        for (Object v : values) {
-            Map<String, Object> m = castMap(v);
-            out.add(new CategoryDTO((String) m.get("id"), (String) m.get("name")));
-        }
-        return out;
-    }
-
-    private List<DocumentDTO> parseDocuments(List<Object> values) {
-        List<DocumentDTO> out = new ArrayList<>();
-        for (Object v : values) {
-            Map<String, Object> m = castMap(v);
-            List<DocumentVersionDTO> versions = new ArrayList<>();
-            for (Object vv : (List<Object>) m.getOrDefault("versions", List.of())) {
-                Map<String, Object> vm = castMap(vv);
-                versions.add(new DocumentVersionDTO(((Number) vm.get("versionNumber")).intValue(), (String) vm.get("createdAt"), (String) vm.get("content")));
+            json.beginValue();
+            json.flush();
+            long start = counted.count();
+            long[] range = (previous != null) ? segments.get(dto) : null;
+            if (range != null) {
+                copy(range[0], range[1]);
+                json.endRawValue();
+            } else {
+                serializer.write();
+                json.flush();
+            }
+            written.put(dto, new long[]{start, counted.count() - start});
+        }
+
+        private void copy(long offset, long length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 1 << 16));
+            long done = 0;
+            while (done < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+                int read = previous.read(buffer, offset + done);
+                if (read < 0) throw new IOException("Previous snapshot is shorter than expected");
+                counted.write(buffer.array(), 0, read);
+                done += read;
             }
-            out.add(new DocumentDTO((String) m.get("id"), (String) m.get("title"), (String) m.get("categoryId"), (String) m.get("authorUsername"), (String) m.get("createdAt"), versions));
         }
-        return out;
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> castMap(Object value) { return (Map<String, Object>) value; }
+    /** Counts bytes passed down; {@link #flush()} only drains upstream writers, so it is cheap to call often. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
 
-    @SuppressWarnings("unchecked")
-    private List<String> castStringList(Object value) {
-        List<Object> raw = (List<Object>) value;
-        List<String> out = new ArrayList<>();
-        for (Object o : raw) out.add((String) o);
-        return out;
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        void flushThrough() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Adds up the time spent in the underlying reader. */
+    private static final class TimedReader extends FilterReader {
+        long nanos;
+
+        TimedReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(cbuf, off, len);
+            nanos += System.nanoTime() - start;
+            return read;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package gr.ntua.multimedia.persistence;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer that emits tokens straight to the underlying {@link Writer}.
+ * <p>
+ * Only the nesting state (one flag per open container) is kept in memory, so the cost of
+ * writing does not depend on the size of the data being written.
+ */
+final class JsonWriter {
+    private static final int MAX_DEPTH = 32;
+
+    private final Writer out;
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) out.write("null");
+        else writeString(value);
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes the separator for the next value, so that after {@link #flush()} the value starts at the
+     * current position of the underlying output. If the caller then writes the value itself instead of
+     * through this writer, it must call {@link #endRawValue()} afterwards.
+     */
+    JsonWriter beginValue() throws IOException {
+        separate();
+        afterName = true;
+        return this;
+    }
+
+    void endRawValue() {
+        afterName = false;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("Nesting too deep");
+        hasElements[depth++] = false;
+        out.write(c);
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        if (depth == 0) throw new IllegalStateException("Nothing to close");
+        depth--;
+        out.write(c);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) return;
+        if (hasElements[depth - 1]) out.write(',');
+        hasElements[depth - 1] = true;
+    }
+
+    // Control characters are always escaped, so a written value never spans more than one line.
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case '"' -> "\\\"";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                case '\t' -> "\\t";
+                default -> c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            };
+            if (replacement != null) {
+                out.write(s, start, i - start);
+                out.write(replacement);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,144 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.service.Mutation;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes mutation log entries as single-line JSON objects: {@code {"seq":N,"type":"...",...}}.
+ */
+final class MutationCodec {
+    record Entry(long sequence, Mutation mutation) {}
+
+    private MutationCodec() {}
+
+    static byte[] encode(long sequence, Mutation mutation) {
+        StringWriter out = new StringWriter(128);
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("seq").value(sequence);
+            json.name("type").value(mutation.getClass().getSimpleName());
+            switch (mutation) {
+                case Mutation.UserAdded m -> {
+                    json.name("username").value(m.username());
+                    json.name("passwordHash").value(m.passwordHash());
+                    json.name("firstName").value(m.firstName());
+                    json.name("lastName").value(m.lastName());
+                    json.name("role").value(m.role());
+                    writeIds(json, "allowedCategoryIds", m.allowedCategoryIds());
+                }
+                case Mutation.UserDeleted m -> json.name("username").value(m.username());
+                case Mutation.UserAccessChanged m -> {
+                    json.name("username").value(m.username());
+                    writeIds(json, "allowedCategoryIds", m.allowedCategoryIds());
+                }
+                case Mutation.CategoryAdded m -> {
+                    json.name("categoryId").value(m.categoryId());
+                    json.name("name").value(m.name());
+                }
+                case Mutation.CategoryRenamed m -> {
+                    json.name("categoryId").value(m.categoryId());
+                    json.name("name").value(m.newName());
+                }
+                case Mutation.CategoryDeleted m -> json.name("categoryId").value(m.categoryId());
+                case Mutation.DocumentCreated m -> {
+                    json.name("documentId").value(m.documentId());
+                    json.name("title").value(m.title());
+                    json.name("categoryId").value(m.categoryId());
+                    json.name("authorUsername").value(m.authorUsername());
+                    json.name("createdAt").value(m.createdAt().toString());
+                    json.name("content").value(m.content());
+                }
+                case Mutation.VersionAdded m -> {
+                    json.name("documentId").value(m.documentId());
+                    json.name("versionNumber").value(m.versionNumber());
+                    json.name("createdAt").value(m.createdAt().toString());
+                    json.name("content").value(m.content());
+                }
+                case Mutation.DocumentDeleted m -> json.name("documentId").value(m.documentId());
+                case Mutation.Followed m -> {
+                    json.name("username").value(m.username());
+                    json.name("documentId").value(m.documentId());
+                }
+                case Mutation.Unfollowed m -> {
+                    json.name("username").value(m.username());
+                    json.name("documentId").value(m.documentId());
+                }
+                case Mutation.DocumentSeen m -> {
+                    json.name("username").value(m.username());
+                    json.name("documentId").value(m.documentId());
+                    json.name("versionNumber").value(m.versionNumber());
+                }
+                case Mutation.RemovalNoticesRead m -> json.name("username").value(m.username());
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("StringWriter cannot fail", e);
+        }
+        out.write('\n');
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Entry decode(String line) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        long sequence = -1;
+        int versionNumber = 0;
+        try (JsonReader json = new JsonReader(new StringReader(line))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                switch (name) {
+                    case "seq" -> sequence = json.nextLong();
+                    case "versionNumber" -> versionNumber = json.nextInt();
+                    case "allowedCategoryIds" -> {
+                        json.beginArray();
+                        while (json.hasNext()) ids.add(json.nextString());
+                        json.endArray();
+                    }
+                    default -> fields.put(name, json.nextString());
+                }
+            }
+            json.endObject();
+        }
+        String type = fields.getOrDefault("type", "");
+        Mutation mutation = switch (type) {
+            case "UserAdded" -> new Mutation.UserAdded(fields.get("username"), fields.get("passwordHash"),
+                    fields.get("firstName"), fields.get("lastName"), fields.get("role"), Set.copyOf(ids));
+            case "UserDeleted" -> new Mutation.UserDeleted(fields.get("username"));
+            case "UserAccessChanged" -> new Mutation.UserAccessChanged(fields.get("username"), Set.copyOf(ids));
+            case "CategoryAdded" -> new Mutation.CategoryAdded(fields.get("categoryId"), fields.get("name"));
+            case "CategoryRenamed" -> new Mutation.CategoryRenamed(fields.get("categoryId"), fields.get("name"));
+            case "CategoryDeleted" -> new Mutation.CategoryDeleted(fields.get("categoryId"));
+            case "DocumentCreated" -> new Mutation.DocumentCreated(fields.get("documentId"), fields.get("title"),
+                    fields.get("categoryId"), fields.get("authorUsername"), LocalDateTime.parse(fields.get("createdAt")),
+                    fields.get("content"));
+            case "VersionAdded" -> new Mutation.VersionAdded(fields.get("documentId"), versionNumber,
+                    LocalDateTime.parse(fields.get("createdAt")), fields.get("content"));
+            case "DocumentDeleted" -> new Mutation.DocumentDeleted(fields.get("documentId"));
+            case "Followed" -> new Mutation.Followed(fields.get("username"), fields.get("documentId"));
+            case "Unfollowed" -> new Mutation.Unfollowed(fields.get("username"), fields.get("documentId"));
+            case "DocumentSeen" -> new Mutation.DocumentSeen(fields.get("username"), fields.get("documentId"), versionNumber);
+            case "RemovalNoticesRead" -> new Mutation.RemovalNoticesRead(fields.get("username"));
+            default -> throw new IllegalArgumentException("Unknown mutation type: " + type);
+        };
+        if (sequence < 1) throw new IllegalArgumentException("Missing sequence number");
+        return new Entry(sequence, mutation);
+    }
+
+    private static void writeIds(JsonWriter json, String name, Set<String> ids) throws IOException {
+        json.name(name).beginArray();
+        for (String id : ids) json.value(id);
+        json.endArray();
+    }
+}
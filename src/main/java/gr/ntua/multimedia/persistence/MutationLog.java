@@ -0,0 +1,261 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.exception.StorageException;
+import gr.ntua.multimedia.service.Mutation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only, line-per-entry log of {@link Mutation}s with group commit.
+ * <p>
+ * {@link #append} only encodes and queues the entry; a single writer thread drains everything queued
+ * since its previous round, writes it with one call and issues one fsync for the whole batch.
+ */
+final class MutationLog implements AutoCloseable {
+    private final Path path;
+    private final Object lock = new Object();
+    private final Object fileLock = new Object();
+    private final List<byte[]> queue = new ArrayList<>();
+    private final Thread writer;
+
+    private FileChannel channel;
+    private long lastSequence;
+    private long durableSequence;
+    private long entryCount;
+    private int unwrittenBatch;     // entries the writer has taken from the queue but not yet written
+    private IOException failure;
+    private boolean closed;
+
+    private MutationLog(Path path, FileChannel channel, long lastSequence, long entryCount) {
+        this.path = path;
+        this.channel = channel;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.entryCount = entryCount;
+        this.writer = new Thread(this::runWriter, "medialab-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens (or creates) the log, passing every entry newer than {@code afterSequence} to {@code replay}.
+     * A torn entry left at the end by a crash is discarded.
+     */
+    static MutationLog open(Path path, long afterSequence, Consumer<Mutation> replay) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        if (!Files.exists(path)) Files.createFile(path);
+        long[] last = {afterSequence, 0};
+        long valid = scan(path, entry -> {
+            last[1]++;
+            if (entry.sequence() <= afterSequence) return;
+            if (entry.sequence() != last[0] + 1) {
+                throw new IOException("Gap in mutation log after sequence " + last[0]);
+            }
+            replay.accept(entry.mutation());
+            last[0] = entry.sequence();
+        });
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        if (channel.size() > valid) {
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+        return new MutationLog(path, channel, last[0], last[1]);
+    }
+
+    /** Queues a mutation for the next group commit and returns its sequence number. */
+    long append(Mutation mutation) {
+        synchronized (lock) {
+            checkUsable();
+            long sequence = ++lastSequence;
+            queue.add(MutationCodec.encode(sequence, mutation));
+            entryCount++;
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+
+    /** Blocks until every entry appended so far is on disk and returns the last durable sequence. */
+    long sync() {
+        synchronized (lock) {
+            long target = lastSequence;
+            while (durableSequence < target) {
+                checkUsable();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException("Interrupted while waiting for the mutation log");
+                }
+            }
+            return target;
+        }
+    }
+
+    /**
+     * @throws StorageException if the log was closed or a write failed, so mutations can no longer be logged
+     */
+    void requireUsable() {
+        synchronized (lock) {
+            checkUsable();
+        }
+    }
+
+    long lastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /** Number of entries currently held by the log (written or queued). */
+    long entryCount() {
+        synchronized (lock) {
+            return entryCount;
+        }
+    }
+
+    /** Drops every entry up to and including {@code sequence}, typically once it is covered by a snapshot. */
+    void truncateThrough(long sequence) throws IOException {
+        synchronized (fileLock) {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            long[] kept = {0};
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                scan(path, entry -> {
+                    if (entry.sequence() > sequence) {
+                        out.write(MutationCodec.encode(entry.sequence(), entry.mutation()));
+                        kept[0]++;
+                    }
+                });
+            }
+            try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            synchronized (lock) {
+                entryCount = kept[0] + unwrittenBatch + queue.size();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            channel.close();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            List<byte[]> batch;
+            long batchEnd;
+            synchronized (lock) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) return;
+                batch = new ArrayList<>(queue);
+                queue.clear();
+                unwrittenBatch = batch.size();
+                batchEnd = lastSequence;
+            }
+            try {
+                write(batch);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            synchronized (lock) {
+                durableSequence = batchEnd;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] entry : batch) size += entry.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] entry : batch) buffer.put(entry);
+        buffer.flip();
+        synchronized (fileLock) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            synchronized (lock) {
+                unwrittenBatch = 0;
+            }
+            channel.force(false);
+        }
+    }
+
+    private void checkUsable() {
+        if (failure != null) throw new StorageException("Mutation log write failed", failure);
+        if (closed) throw new StorageException("Mutation log is closed");
+    }
+
+    private interface EntryHandler {
+        void handle(MutationCodec.Entry entry) throws IOException;
+    }
+
+    /** Decodes every complete line and returns the byte offset just past the last one. */
+    private static long scan(Path path, EntryHandler handler) throws IOException {
+        long offset = 0;
+        long complete = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                MutationCodec.Entry entry;
+                try {
+                    entry = MutationCodec.decode(line.toString(StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    throw new IOException("Unreadable mutation log entry at byte " + complete, e);
+                }
+                try {
+                    handler.handle(entry);
+                } catch (RuntimeException e) {
+                    throw new IOException("Failed to apply mutation log entry " + entry.sequence() + " at byte " + complete, e);
+                }
+                line.reset();
+                complete = offset;
+            }
+        }
+        return complete;
+    }
+}
@@ -0,0 +1,248 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Content;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.DocumentVersion;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.exception.StorageException;
+import gr.ntua.multimedia.persistence.dto.CategoryDTO;
+import gr.ntua.multimedia.persistence.dto.DocumentVersionDTO;
+import gr.ntua.multimedia.service.MediaLabSystem;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage that keeps a small index file plus one file per document, as an alternative to {@link JsonStorage}.
+ * <p>
+ * {@code index.json} holds the users, the categories and a header per document (everything but the
+ * versions, plus the latest version number). The versions of a document live in
+ * {@code documents/<id>.json} and are read the first time the document's contents are needed, so
+ * loading takes the same time and memory however long the histories are. Saving rewrites the index
+ * and only the document files whose document changed since it was loaded or last saved.
+ * <p>
+ * An existing single-file store is migrated by loading it with {@link JsonStorage} and saving the
+ * result here.
+ */
+public class ShardedStorage {
+    private static final String INDEX_FILE = "index.json";
+    private static final String DOCUMENTS_DIR = "documents";
+    private static final String FILE_SUFFIX = ".json";
+
+    private final Path directory;
+
+    // Revision of every document as it is currently on disk; unchanged documents are not rewritten.
+    private Map<String, Long> savedRevisions = new HashMap<>();
+
+    public ShardedStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    public synchronized MediaLabSystem loadOrCreateDefault() {
+        Path index = directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            MediaLabSystem system = new MediaLabSystem();
+            save(system);
+            return system;
+        }
+        Map<String, User> userMap = new HashMap<>();
+        Map<String, Category> categoryMap = new HashMap<>();
+        Map<String, Document> documentMap = new HashMap<>();
+        try (JsonReader json = new JsonReader(Files.newBufferedReader(index, StandardCharsets.UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "users" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            User user = StoreRecords.toUser(StoreRecords.readUser(json));
+                            userMap.put(user.getUsername(), user);
+                        }
+                        json.endArray();
+                    }
+                    case "categories" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            CategoryDTO c = StoreRecords.readCategory(json);
+                            categoryMap.put(c.id(), new Category(c.id(), c.name()));
+                        }
+                        json.endArray();
+                    }
+                    case "documents" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            Document doc = readHeader(json);
+                            documentMap.put(doc.getId(), doc);
+                        }
+                        json.endArray();
+                    }
+                    default -> json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (Exception e) {
+            throw new StorageException("Failed to load data", e);
+        }
+        Map<String, Long> revisions = new HashMap<>();
+        for (Document d : documentMap.values()) revisions.put(d.getId(), d.getRevision());
+        savedRevisions = revisions;
+        return new MediaLabSystem(userMap, categoryMap, documentMap);
+    }
+
+    /**
+     * Writes every changed document file, then the index, then removes the files of deleted documents.
+     * Each file is replaced atomically, and the index is written last so it never refers to versions
+     * that are not on disk yet. Changes to the system wait until the save is done.
+     */
+    public synchronized void save(MediaLabSystem system) {
+        system.readAtomically(() -> {
+            write(system);
+            return null;
+        });
+    }
+
+    private void write(MediaLabSystem system) {
+        Path documentsDir = directory.resolve(DOCUMENTS_DIR);
+        try {
+            Files.createDirectories(documentsDir);
+            Map<String, Long> revisions = new HashMap<>();
+            for (Document d : system.getDocuments().values()) {
+                Long saved = savedRevisions.get(d.getId());
+                if (saved == null || saved != d.getRevision()) {
+                    writeAtomically(documentFile(d.getId()), json -> writeHistory(json, d));
+                }
+                revisions.put(d.getId(), d.getRevision());
+            }
+            writeAtomically(directory.resolve(INDEX_FILE), json -> writeIndex(json, system));
+            savedRevisions = revisions;
+            // Also catches files left behind by a save that was interrupted before this step.
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(documentsDir, "*" + FILE_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String id = name.substring(0, name.length() - FILE_SUFFIX.length());
+                    if (!revisions.containsKey(id)) Files.delete(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new StorageException("Failed to save data", e);
+        }
+    }
+
+    private Path documentFile(String documentId) {
+        return directory.resolve(DOCUMENTS_DIR).resolve(documentId + FILE_SUFFIX);
+    }
+
+    private Document readHeader(JsonReader json) throws IOException {
+        String id = null, title = null, categoryId = null, authorUsername = null, createdAt = null;
+        int latestVersionNumber = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id" -> id = json.nextString();
+                case "title" -> title = json.nextString();
+                case "categoryId" -> categoryId = json.nextString();
+                case "authorUsername" -> authorUsername = json.nextString();
+                case "createdAt" -> createdAt = json.nextString();
+                case "latestVersionNumber" -> latestVersionNumber = json.nextInt();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        String documentId = id;
+        int latest = latestVersionNumber;
+        return new Document(id, title, categoryId, authorUsername, LocalDateTime.parse(createdAt),
+                latest, () -> loadHistory(documentId, latest));
+    }
+
+    private List<DocumentVersion> loadHistory(String documentId, int latestVersionNumber) {
+        List<DocumentVersionDTO> stored = new ArrayList<>();
+        try (JsonReader json = new JsonReader(Files.newBufferedReader(documentFile(documentId), StandardCharsets.UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!json.nextName().equals("versions")) {
+                    json.skipValue();
+                    continue;
+                }
+                json.beginArray();
+                while (json.hasNext()) stored.add(StoreRecords.readVersion(json));
+                json.endArray();
+            }
+            json.endObject();
+            stored.sort(Comparator.comparingInt(DocumentVersionDTO::versionNumber));
+            List<DocumentVersion> versions = StoreRecords.toVersions(stored, v -> Content.of(v.content()));
+            if (versions.size() <= latestVersionNumber) return versions;
+            // Versions newer than the index come from a save interrupted before the index was written. The
+            // kept ones may be deltas against them, so they are handed over in full.
+            List<DocumentVersion> kept = new ArrayList<>(latestVersionNumber);
+            for (DocumentVersion v : versions.subList(0, latestVersionNumber)) {
+                kept.add(new DocumentVersion(v.getVersionNumber(), v.getCreatedAt(), v.getContent()));
+            }
+            return kept;
+        } catch (IOException | RuntimeException e) {
+            throw new StorageException("Failed to load versions of document " + documentId, e);
+        }
+    }
+
+    private void writeIndex(JsonWriter json, MediaLabSystem system) throws IOException {
+        json.beginObject();
+        json.name("users").beginArray();
+        for (User u : system.getUsers().values()) StoreRecords.writeUser(json, StoreRecords.toDto(u));
+        json.endArray();
+        json.name("categories").beginArray();
+        for (Category c : system.getCategories().values()) StoreRecords.writeCategory(json, StoreRecords.toDto(c));
+        json.endArray();
+        json.name("documents").beginArray();
+        for (Document d : system.getDocuments().values()) {
+            json.beginObject();
+            json.name("id").value(d.getId());
+            json.name("title").value(d.getTitle());
+            json.name("categoryId").value(d.getCategoryId());
+            json.name("authorUsername").value(d.getAuthorUsername());
+            json.name("createdAt").value(d.getCreatedAt().toString());
+            json.name("latestVersionNumber").value(d.getLatestVersionNumber());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private void writeHistory(JsonWriter json, Document d) throws IOException {
+        json.beginObject();
+        json.name("id").value(d.getId());
+        json.name("versions").beginArray();
+        for (DocumentVersion v : d.getVersions()) StoreRecords.writeVersion(json, StoreRecords.toDto(v, false));
+        json.endArray();
+        json.endObject();
+    }
+
+    private interface JsonContent {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private static void writeAtomically(Path file, JsonContent content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+             Writer out = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8))) {
+            JsonWriter json = new JsonWriter(out);
+            content.write(json);
+            json.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
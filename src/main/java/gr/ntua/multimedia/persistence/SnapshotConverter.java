@@ -0,0 +1,45 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.service.MediaLabSystem;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Converts a store between the JSON ({@link JsonStorage}) and binary ({@link BinaryStorage}) snapshot formats.
+ * <p>
+ * Usage: {@code SnapshotConverter <source> <target>}; a source ending in {@code .json} is converted to
+ * binary, anything else to JSON.
+ */
+public final class SnapshotConverter {
+    private SnapshotConverter() {}
+
+    public static void jsonToBinary(Path jsonFile, Path binaryFile) {
+        new BinaryStorage(binaryFile).save(load(new JsonStorage(jsonFile)::loadOrCreateDefault, jsonFile));
+    }
+
+    public static void binaryToJson(Path binaryFile, Path jsonFile) {
+        new JsonStorage(jsonFile).save(load(new BinaryStorage(binaryFile)::loadOrCreateDefault, binaryFile));
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: SnapshotConverter <source> <target>");
+            System.exit(2);
+        }
+        Path source = Path.of(args[0]);
+        Path target = Path.of(args[1]);
+        if (source.getFileName().toString().endsWith(".json")) {
+            jsonToBinary(source, target);
+        } else {
+            binaryToJson(source, target);
+        }
+    }
+
+    // Both storages create a default store when the file is missing; a conversion must not.
+    private static MediaLabSystem load(Supplier<MediaLabSystem> loader, Path source) {
+        if (!Files.exists(source)) throw new IllegalArgumentException("No such file: " + source);
+        return loader.get();
+    }
+}
@@ -0,0 +1,266 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.domain.Admin;
+import gr.ntua.multimedia.domain.Author;
+import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Content;
+import gr.ntua.multimedia.domain.Delta;
+import gr.ntua.multimedia.domain.DocumentVersion;
+import gr.ntua.multimedia.domain.RemovalNotice;
+import gr.ntua.multimedia.domain.SimpleUser;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.persistence.dto.CategoryDTO;
+import gr.ntua.multimedia.persistence.dto.ContentDTO;
+import gr.ntua.multimedia.persistence.dto.DocumentVersionDTO;
+import gr.ntua.multimedia.persistence.dto.RemovalNoticeDTO;
+import gr.ntua.multimedia.persistence.dto.UserDTO;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * JSON encoding of the records shared by every storage layout: users, categories, document versions and contents.
+ */
+final class StoreRecords {
+    private StoreRecords() {}
+
+    static UserDTO toDto(User u) {
+        return new UserDTO(u.getUsername(), u.getPasswordHash(), u.getFirstName(), u.getLastName(), u.getRoleName(),
+                List.copyOf(u.getAllowedCategoryIds()), List.copyOf(u.getFollowedDocumentIds()),
+                Map.copyOf(u.getLastSeenVersionByDocId()), toDtos(u.getRemovalNotices()), u.getUpdatedDocumentIds());
+    }
+
+    static List<RemovalNoticeDTO> toDtos(List<RemovalNotice> notices) {
+        List<RemovalNoticeDTO> out = new ArrayList<>(notices.size());
+        for (RemovalNotice n : notices) out.add(new RemovalNoticeDTO(n.getTitle(), n.getCategoryName()));
+        return out;
+    }
+
+    static CategoryDTO toDto(Category c) {
+        return new CategoryDTO(c.getId(), c.getName());
+    }
+
+    /**
+     * @param byHash refer to a full content by its hash instead of writing it inline
+     */
+    static DocumentVersionDTO toDto(DocumentVersion v, boolean byHash) {
+        String createdAt = v.getCreatedAt().toString();
+        if (v.getDelta() != null) return new DocumentVersionDTO(v.getVersionNumber(), createdAt, null, null, v.getDelta().encoded());
+        if (byHash) return new DocumentVersionDTO(v.getVersionNumber(), createdAt, null, v.getContentHash(), null);
+        return new DocumentVersionDTO(v.getVersionNumber(), createdAt, v.getContent(), null, null);
+    }
+
+    /**
+     * Rebuilds versions sorted oldest first. Deltas refer to the following version, so they are built
+     * newest first.
+     *
+     * @param fullContent resolves the content of a version that is not stored as a delta
+     */
+    static List<DocumentVersion> toVersions(List<DocumentVersionDTO> sorted, Function<DocumentVersionDTO, Content> fullContent) {
+        DocumentVersion[] versions = new DocumentVersion[sorted.size()];
+        for (int i = versions.length - 1; i >= 0; i--) {
+            DocumentVersionDTO v = sorted.get(i);
+            LocalDateTime createdAt = LocalDateTime.parse(v.createdAt());
+            if (v.delta() != null && i + 1 < versions.length) {
+                versions[i] = new DocumentVersion(v.versionNumber(), createdAt, Delta.decode(v.delta()), versions[i + 1]);
+            } else if (v.delta() != null) {
+                throw new IllegalArgumentException("Latest version " + v.versionNumber() + " is stored as a delta");
+            } else {
+                versions[i] = new DocumentVersion(v.versionNumber(), createdAt, fullContent.apply(v));
+            }
+        }
+        return Arrays.asList(versions);
+    }
+
+    static User toUser(UserDTO u) {
+        Set<String> allowed = Set.copyOf(u.allowedCategoryIds());
+        Set<String> followed = Set.copyOf(u.followedDocumentIds());
+        Map<String, Integer> seen = u.lastSeenVersionByDocId();
+        User user = switch (u.role()) {
+            case "ADMIN" -> new Admin(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
+            case "AUTHOR" -> new Author(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
+            default -> new SimpleUser(u.username(), u.passwordHash(), u.firstName(), u.lastName(), allowed, followed, seen);
+        };
+        for (RemovalNoticeDTO n : u.removalNotices()) user.addRemovalNotice(new RemovalNotice(n.title(), n.categoryName()));
+        // Stores saved before updated documents were listed have every followed one checked instead.
+        user.restoreUpdatedDocuments(u.updatedDocumentIds() != null ? u.updatedDocumentIds() : u.followedDocumentIds());
+        return user;
+    }
+
+    static void writeUser(JsonWriter json, UserDTO user) throws IOException {
+        json.beginObject();
+        json.name("username").value(user.username());
+        json.name("passwordHash").value(user.passwordHash());
+        json.name("firstName").value(user.firstName());
+        json.name("lastName").value(user.lastName());
+        json.name("role").value(user.role());
+        json.name("allowedCategoryIds").beginArray();
+        for (String id : user.allowedCategoryIds()) json.value(id);
+        json.endArray();
+        json.name("followedDocumentIds").beginArray();
+        for (String id : user.followedDocumentIds()) json.value(id);
+        json.endArray();
+        json.name("lastSeenVersionByDocId").beginObject();
+        for (Map.Entry<String, Integer> e : user.lastSeenVersionByDocId().entrySet()) {
+            json.name(e.getKey()).value(e.getValue());
+        }
+        json.endObject();
+        // Only written when there are any, so users without pending notices look as they always did.
+        if (!user.removalNotices().isEmpty()) {
+            json.name("removalNotices").beginArray();
+            for (RemovalNoticeDTO n : user.removalNotices()) {
+                json.beginObject();
+                json.name("title").value(n.title());
+                json.name("categoryName").value(n.categoryName());
+                json.endObject();
+            }
+            json.endArray();
+        }
+        // Always written, because its absence marks a store saved before documents were listed.
+        json.name("updatedDocumentIds").beginArray();
+        for (String id : user.updatedDocumentIds()) json.value(id);
+        json.endArray();
+        json.endObject();
+    }
+
+    static void writeCategory(JsonWriter json, CategoryDTO c) throws IOException {
+        json.beginObject();
+        json.name("id").value(c.id());
+        json.name("name").value(c.name());
+        json.endObject();
+    }
+
+    static void writeVersion(JsonWriter json, DocumentVersionDTO v) throws IOException {
+        json.beginObject();
+        json.name("versionNumber").value(v.versionNumber());
+        json.name("createdAt").value(v.createdAt());
+        if (v.delta() != null) {
+            json.name("delta").value(v.delta());
+        } else if (v.contentHash() != null) {
+            json.name("contentHash").value(v.contentHash());
+        } else {
+            json.name("content").value(v.content());
+        }
+        json.endObject();
+    }
+
+    static void writeContent(JsonWriter json, ContentDTO c) throws IOException {
+        json.beginObject();
+        json.name("hash").value(c.hash());
+        json.name("content").value(c.content());
+        json.endObject();
+    }
+
+    static UserDTO readUser(JsonReader json) throws IOException {
+        String username = null, passwordHash = null, firstName = null, lastName = null, role = null;
+        List<String> allowed = List.of();
+        List<String> followed = List.of();
+        Map<String, Integer> seen = new HashMap<>();
+        List<RemovalNoticeDTO> notices = new ArrayList<>();
+        List<String> updated = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "username" -> username = json.nextString();
+                case "passwordHash" -> passwordHash = json.nextString();
+                case "firstName" -> firstName = json.nextString();
+                case "lastName" -> lastName = json.nextString();
+                case "role" -> role = json.nextString();
+                case "allowedCategoryIds" -> allowed = readStringList(json);
+                case "followedDocumentIds" -> followed = readStringList(json);
+                case "lastSeenVersionByDocId" -> {
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        String docId = json.nextName();
+                        seen.put(docId, json.nextInt());
+                    }
+                    json.endObject();
+                }
+                case "removalNotices" -> {
+                    json.beginArray();
+                    while (json.hasNext()) notices.add(readRemovalNotice(json));
+                    json.endArray();
+                }
+                case "updatedDocumentIds" -> updated = readStringList(json);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new UserDTO(username, passwordHash, firstName, lastName, role, allowed, followed, seen, notices, updated);
+    }
+
+    private static RemovalNoticeDTO readRemovalNotice(JsonReader json) throws IOException {
+        String title = null, categoryName = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "title" -> title = json.nextString();
+                case "categoryName" -> categoryName = json.nextString();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new RemovalNoticeDTO(title, categoryName);
+    }
+
+    static CategoryDTO readCategory(JsonReader json) throws IOException {
+        String id = null, name = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id" -> id = json.nextString();
+                case "name" -> name = json.nextString();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new CategoryDTO(id, name);
+    }
+
+    static DocumentVersionDTO readVersion(JsonReader json) throws IOException {
+        int versionNumber = 0;
+        String createdAt = null, content = null, contentHash = null, delta = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "versionNumber" -> versionNumber = json.nextInt();
+                case "createdAt" -> createdAt = json.nextString();
+                case "content" -> content = json.nextString();
+                case "contentHash" -> contentHash = json.nextString();
+                case "delta" -> delta = json.nextString();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new DocumentVersionDTO(versionNumber, createdAt, content, contentHash, delta);
+    }
+
+    static ContentDTO readContent(JsonReader json) throws IOException {
+        String hash = null, content = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "hash" -> hash = json.nextString();
+                case "content" -> content = json.nextString();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new ContentDTO(hash, content);
+    }
+
+    static List<String> readStringList(JsonReader json) throws IOException {
+        List<String> out = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) out.add(json.nextString());
+        json.endArray();
+        return out;
+    }
+}
@@ -0,0 +1,3 @@
+package gr.ntua.multimedia.persistence.dto;
+
+public record ContentDTO(String hash, String content) {}
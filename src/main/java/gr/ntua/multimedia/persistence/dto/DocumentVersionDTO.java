@@ -1,3 +1,8 @@
 package gr.ntua.multimedia.persistence.dto;
 
-public record DocumentVersionDTO(int versionNumber, String createdAt, String content) {}
\ No newline at end of file
+/**
+ * A version whose text is given in exactly one way: inline ({@code content}), as a reference into the
+ * store's contents table ({@code contentHash}), or as a delta against the next version's text
+ * ({@code delta}, see {@link gr.ntua.multimedia.domain.Delta}). The other two are null.
+ */
+public record DocumentVersionDTO(int versionNumber, String createdAt, String content, String contentHash, String delta) {}
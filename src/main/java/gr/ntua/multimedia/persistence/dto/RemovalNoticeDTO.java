@@ -0,0 +1,3 @@
+package gr.ntua.multimedia.persistence.dto;
+
+public record RemovalNoticeDTO(String title, String categoryName) {}
\ No newline at end of file
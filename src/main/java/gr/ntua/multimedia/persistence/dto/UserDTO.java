@@ -11,5 +11,7 @@ public record UserDTO(
         String role,
         List<String> allowedCategoryIds,
         List<String> followedDocumentIds,
-        Map<String, Integer> lastSeenVersionByDocId
+        Map<String, Integer> lastSeenVersionByDocId,
+        List<RemovalNoticeDTO> removalNotices,
+        List<String> updatedDocumentIds
 ) {}
\ No newline at end of file
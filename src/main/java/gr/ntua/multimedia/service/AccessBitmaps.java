@@ -0,0 +1,120 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Admin;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.User;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Visibility of documents as bitmaps. Categories and documents get dense ordinals; every user's allowed
+ * categories are compiled into a bitmap of category ordinals, and every category keeps a bitmap of its
+ * document ordinals. The documents a user can see are then the union of a few bitmaps, and checking one
+ * document is a bit test instead of a lookup of its category id in the user's set.
+ * <p>
+ * Category ordinals are never reused, so a bitmap compiled before a category was deleted cannot grant
+ * access to a later one. Document ordinals are reused once their document is removed from every bitmap.
+ * A compiled user bitmap is kept until the user is replaced or modified, which is how access changes
+ * are applied, or until a category gets an ordinal after it was compiled.
+ * <p>
+ * Changes are made under the facade's write lock, so they never overlap a query, and only they assign
+ * ordinals. Queries may run concurrently and take no lock here: the user bitmaps they compile are never
+ * modified once built and are shared through a concurrent map, where two queries compiling the same one
+ * simply store equal copies.
+ */
+final class AccessBitmaps {
+    private record Compiled(User user, long revision, int categoryCount, BitSet categories) {}
+
+    private final Map<String, Integer> categoryOrdinals = new HashMap<>();
+    private final List<BitSet> documentsByCategory = new ArrayList<>();
+    private final Map<String, Integer> documentOrdinals = new HashMap<>();
+    private final List<Document> documentsByOrdinal = new ArrayList<>();
+    private final BitSet freeDocumentOrdinals = new BitSet();
+    private final Map<String, Compiled> compiledByUsername = new ConcurrentHashMap<>();
+
+    void add(Document doc) {
+        int ordinal = freeDocumentOrdinals.nextSetBit(0);
+        if (ordinal < 0) {
+            ordinal = documentsByOrdinal.size();
+            documentsByOrdinal.add(doc);
+        } else {
+            freeDocumentOrdinals.clear(ordinal);
+            documentsByOrdinal.set(ordinal, doc);
+        }
+        documentOrdinals.put(doc.getId(), ordinal);
+        documentsByCategory.get(categoryOrdinal(doc.getCategoryId())).set(ordinal);
+    }
+
+    void remove(Document doc) {
+        Integer ordinal = documentOrdinals.remove(doc.getId());
+        if (ordinal == null) return;
+        documentsByCategory.get(categoryOrdinal(doc.getCategoryId())).clear(ordinal);
+        documentsByOrdinal.set(ordinal, null);
+        freeDocumentOrdinals.set(ordinal);
+    }
+
+    // Called once the category's documents are removed.
+    void removeCategory(String categoryId) {
+        Integer ordinal = categoryOrdinals.remove(categoryId);
+        if (ordinal != null) documentsByCategory.set(ordinal, null);
+    }
+
+    boolean canAccess(User user, Document doc) {
+        if (user instanceof Admin) return true;
+        Integer ordinal = categoryOrdinals.get(doc.getCategoryId());
+        return ordinal != null && compiled(user).get(ordinal);
+    }
+
+    /** Ordinals of the documents {@code user} can see; see {@link #document(int)}. */
+    BitSet visibleDocuments(User user) {
+        BitSet visible = new BitSet(documentsByOrdinal.size());
+        if (user instanceof Admin) {
+            visible.set(0, documentsByOrdinal.size());
+            visible.andNot(freeDocumentOrdinals);
+            return visible;
+        }
+        BitSet categories = compiled(user);
+        for (int c = categories.nextSetBit(0); c >= 0; c = categories.nextSetBit(c + 1)) {
+            BitSet documents = documentsByCategory.get(c);
+            if (documents != null) visible.or(documents);
+        }
+        return visible;
+    }
+
+    Document document(int ordinal) {
+        return documentsByOrdinal.get(ordinal);
+    }
+
+    private BitSet compiled(User user) {
+        Compiled compiled = compiledByUsername.get(user.getUsername());
+        int categoryCount = documentsByCategory.size();
+        if (compiled == null || compiled.user() != user || compiled.revision() != user.getRevision()
+                || compiled.categoryCount() != categoryCount) {
+            // Categories without an ordinal have no documents yet; one given later triggers a recompile.
+            BitSet categories = new BitSet(categoryCount);
+            for (String categoryId : user.getAllowedCategoryIds()) {
+                Integer ordinal = categoryOrdinals.get(categoryId);
+                if (ordinal != null) categories.set(ordinal);
+            }
+            compiled = new Compiled(user, user.getRevision(), categoryCount, categories);
+            compiledByUsername.put(user.getUsername(), compiled);
+        }
+        return compiled.categories();
+    }
+
+    // Assigned to a category when its first document is added.
+    private int categoryOrdinal(String categoryId) {
+        Integer ordinal = categoryOrdinals.get(categoryId);
+        if (ordinal == null) {
+            ordinal = documentsByCategory.size();
+            documentsByCategory.add(new BitSet());
+            categoryOrdinals.put(categoryId, ordinal);
+        }
+        return ordinal;
+    }
+}
@@ -27,6 +27,18 @@ final class AccessControl {
         }
     }
 
+    /**
+     * Returns the current object for the actor's account, which may differ from the actor's own after the
+     * account was rebuilt, and rejects actors whose account has since been deleted.
+     */
+    static User requireUser(User actor, Map<String, User> usersByUsername) {
+        User current = actor == null ? null : usersByUsername.get(actor.getUsername());
+        if (current == null) {
+            throw new PermissionDeniedException("User account no longer exists");
+        }
+        return current;
+    }
+
     static Category findCategory(String categoryId, Map<String, Category> categoriesById) {
         ValidationUtil.requireNonBlank(categoryId, "categoryId");
         Category category = categoriesById.get(categoryId);
@@ -45,6 +57,15 @@ final class AccessControl {
         return doc;
     }
 
+    static User findUser(String username, Map<String, User> usersByUsername) {
+        ValidationUtil.requireNonBlank(username, "username");
+        User user = usersByUsername.get(username);
+        if (user == null) {
+            throw new NotFoundException("User not found: " + username);
+        }
+        return user;
+    }
+
     static void requireCategoryAccess(User actor, String categoryId) {
         if (!actor.canAccessCategory(categoryId)) {
             throw new PermissionDeniedException("No access to category: " + categoryId);
@@ -0,0 +1,69 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Index from the normalized words of users' first and last names to their usernames.
+ * <p>
+ * A name query matches the users who have, for every word of the query, a name word starting with it,
+ * so "mar pap" finds Maria Papadopoulou. Names never change once a user exists, so the index only
+ * follows users being added and deleted.
+ */
+final class AuthorNameIndex {
+    private final TreeMap<String, Set<String>> usernamesByWord = new TreeMap<>();
+    private long generation;
+
+    // Changes whenever a user is added or removed.
+    long generation() {
+        return generation;
+    }
+
+    void add(User user) {
+        generation++;
+        for (String word : words(user)) {
+            usernamesByWord.computeIfAbsent(word, w -> new HashSet<>()).add(user.getUsername());
+        }
+    }
+
+    void remove(User user) {
+        generation++;
+        for (String word : words(user)) {
+            Set<String> usernames = usernamesByWord.get(word);
+            if (usernames != null && usernames.remove(user.getUsername()) && usernames.isEmpty()) {
+                usernamesByWord.remove(word);
+            }
+        }
+    }
+
+    /** Usernames of the users whose name matches {@code query}; empty if the query has no words. */
+    Set<String> matching(String query) {
+        Set<String> result = null;
+        for (String word : split(TextUtil.normalize(query))) {
+            Set<String> withWord = new HashSet<>();
+            SortedMap<String, Set<String>> range = usernamesByWord.subMap(word, word + Character.MAX_VALUE);
+            for (Set<String> usernames : range.values()) withWord.addAll(usernames);
+            if (result == null) {
+                result = withWord;
+            } else {
+                result.retainAll(withWord);
+            }
+            if (result.isEmpty()) break;
+        }
+        return result == null ? Set.of() : result;
+    }
+
+    private static Set<String> words(User user) {
+        return Set.copyOf(Arrays.asList(split(user.getNormalizedName())));
+    }
+
+    private static String[] split(String normalized) {
+        return normalized.isEmpty() ? new String[0] : normalized.split("\\s+");
+    }
+}
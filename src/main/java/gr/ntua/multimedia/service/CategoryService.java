@@ -6,8 +6,8 @@ import gr.ntua.multimedia.domain.Document;
 import gr.ntua.multimedia.domain.User;
 import gr.ntua.multimedia.exception.ValidationException;
 import gr.ntua.multimedia.util.IdUtil;
+import gr.ntua.multimedia.util.TextUtil;
 import gr.ntua.multimedia.util.ValidationUtil;
-import gr.ntua.multimedia.service.FollowService;
 
 import java.util.List;
 import java.util.Map;
@@ -16,23 +16,24 @@ final class CategoryService {
     private final Map<String, User> usersByUsername;
     private final Map<String, Category> categoriesById;
     private final Map<String, Document> documentsById;
-    private final FollowService followService;
+    private final DocumentService documentService;
+    private final UniqueIndex names = new UniqueIndex();
+    private final FuzzyIndex fuzzyNames = new FuzzyIndex();
     CategoryService(Map<String, User> usersByUsername,
                     Map<String, Category> categoriesById,
-                    Map<String, Document> documentsById, FollowService followService) {
+                    Map<String, Document> documentsById, DocumentService documentService) {
         this.usersByUsername = usersByUsername;
         this.categoriesById = categoriesById;
         this.documentsById = documentsById;
-        this.followService = followService;
+        this.documentService = documentService;
+        for (Category c : categoriesById.values()) {
+            names.put(c.getNormalizedName(), c.getId());
+            fuzzyNames.add(c.getId(), c.getNormalizedName());
+        }
     }
 
     private boolean categoryNameExists(String name, String excludeCategoryId) {
-        String normalized = name.trim().toLowerCase();
-        return categoriesById.values().stream()
-                .anyMatch(c ->
-                        !c.getId().equals(excludeCategoryId) &&
-                                c.getName().trim().toLowerCase().equals(normalized)
-                );
+        return names.isTaken(TextUtil.normalize(name), excludeCategoryId);
     }
 
     Category addCategory(Admin adminActor, String categoryName) {
@@ -43,7 +44,7 @@ final class CategoryService {
             throw new ValidationException("Category name already exists: " + normalizedName);
         }
         Category category = new Category(IdUtil.newId(), categoryName);
-        categoriesById.put(category.getId(), category);
+        putCategory(category);
         return category;
     }
 
@@ -54,28 +55,55 @@ final class CategoryService {
         if (categoryNameExists(normalizedName, category.getId())) {
             throw new ValidationException("Category name already exists: " + normalizedName);
         }
+        rename(category, newName);
+    }
+
+    void rename(Category category, String newName) {
+        String oldKey = category.getNormalizedName();
         category.rename(newName);
+        names.remove(oldKey, category.getId());
+        names.put(category.getNormalizedName(), category.getId());
+        fuzzyNames.add(category.getId(), category.getNormalizedName());
     }
 
     void deleteCategory(Admin adminActor, String categoryId) {
         AccessControl.requireAdmin(adminActor, usersByUsername);
         Category category = AccessControl.findCategory(categoryId, categoriesById);
-        List<String> toDelete = documentsById.values().stream()
-                .filter(d -> d.getCategoryId().equals(category.getId()))
-                .map(Document::getId)
-                .toList();
+        removeCategory(category);
+    }
 
+    void removeCategory(Category category) {
+        List<String> toDelete = List.copyOf(documentService.documentIdsInCategory(category.getId()));
+
+        // The category is still registered here, so followers are told its name.
         for (String docId : toDelete) {
             Document doc = documentsById.get(docId);
-            if (doc != null) {
-                followService.recordDocumentRemovalForFollowers(docId, doc.getTitle(), category.getName(), usersByUsername);
-            }
+            if (doc != null) documentService.removeDocument(doc);
+        }
+        categoriesById.remove(category.getId());
+        documentService.categoryRemoved(category.getId());
+        names.remove(category.getNormalizedName(), category.getId());
+        fuzzyNames.remove(category.getId());
+    }
+
+    void restoreCategory(String categoryId, String name) {
+        putCategory(new Category(categoryId, name));
+    }
 
-            documentsById.remove(docId);
-            for (User user : usersByUsername.values()) {
-                user.unfollowDocument(docId);
-            }
+    private void putCategory(Category category) {
+        categoriesById.put(category.getId(), category);
+        names.put(category.getNormalizedName(), category.getId());
+        fuzzyNames.add(category.getId(), category.getNormalizedName());
+    }
+
+    List<FuzzyMatch<Category>> suggestCategories(User actor, String query, int limit) {
+        ValidationUtil.requireNonNull(actor, "actor");
+        ValidationUtil.requireNonBlank(query, "query");
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be >= 1");
         }
-        categoriesById.remove(categoryId);
+        return fuzzyNames.top(query, limit, actor::canAccessCategory).stream()
+                .map(e -> new FuzzyMatch<>(categoriesById.get(e.getKey()), e.getValue()))
+                .toList();
     }
-}
\ No newline at end of file
+}
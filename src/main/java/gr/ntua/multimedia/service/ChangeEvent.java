@@ -0,0 +1,10 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * A {@link Mutation} as delivered by {@link MediaLabSystem#changes()}, with any password hash left out.
+ *
+ * @param sequence  the position of the mutation among all mutations of the system, without gaps; numbering
+ *                  starts at 1, or continues that of the journal when the system was opened from one
+ * @param mutation  the mutation
+ */
+public record ChangeEvent(long sequence, Mutation mutation) {}
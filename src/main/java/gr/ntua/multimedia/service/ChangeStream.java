@@ -0,0 +1,162 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.exception.ChangesExpiredException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes every mutation as a numbered {@link ChangeEvent}.
+ * <p>
+ * The latest {@code capacity} events are kept in a ring shared by all subscribers, which is the only
+ * buffering there is: appending never waits for a subscriber, and each subscriber just has a cursor into
+ * the ring that moves as fast as it requests events. A subscriber whose cursor falls out of the ring gets
+ * a {@link ChangesExpiredException} instead of skipping events. Since the numbers have no gaps, a
+ * subscriber that stopped can subscribe again after the last event it handled, through
+ * {@link #subscribeAfter}, and miss nothing as long as the next one is still retained. Numbers start at 1
+ * unless {@link #startAfter} continues an earlier numbering.
+ * <p>
+ * Signals are delivered on the executor, one at a time per subscriber.
+ */
+final class ChangeStream implements Flow.Publisher<ChangeEvent> {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final Executor executor;
+    private final ChangeEvent[] retained;
+    private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+    private long firstSequence = 1;    // guarded by this
+    private long nextSequence = 1;     // guarded by this
+
+    ChangeStream(int capacity, Executor executor) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        this.retained = new ChangeEvent[capacity];
+        this.executor = executor;
+    }
+
+    void append(Mutation mutation) {
+        synchronized (this) {
+            retained[(int) (nextSequence % retained.length)] = new ChangeEvent(nextSequence, mutation);
+            nextSequence++;
+        }
+        for (Delivery d : deliveries) d.signal();
+    }
+
+    /** Numbers the events after {@code sequence}; only allowed before the first one is appended. */
+    synchronized void startAfter(long sequence) {
+        if (nextSequence != firstSequence) throw new IllegalStateException("Changes were already published");
+        if (sequence < 0) throw new IllegalArgumentException("sequence must be >= 0");
+        firstSequence = nextSequence = sequence + 1;
+    }
+
+    synchronized long latestSequence() {
+        return nextSequence - 1;
+    }
+
+    /** Delivers the events appended from now on. */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChangeEvent> subscriber) {
+        subscribeAfter(subscriber, latestSequence());
+    }
+
+    /** Delivers the events after {@code afterSequence}, as far as they are retained. */
+    void subscribeAfter(Flow.Subscriber<? super ChangeEvent> subscriber, long afterSequence) {
+        Delivery delivery = new Delivery(subscriber, Math.max(1, afterSequence + 1));
+        long latest = latestSequence();
+        if (afterSequence > latest) {
+            // Most likely a cursor from before a restart that renumbered the changes.
+            delivery.badRequest = new IllegalArgumentException("No change " + afterSequence + " yet, the latest is " + latest);
+        }
+        deliveries.add(delivery);
+        delivery.signal();
+    }
+
+    // Null if the event was not appended yet.
+    private synchronized ChangeEvent eventAt(long sequence) {
+        if (sequence >= nextSequence) return null;
+        long firstRetained = Math.max(firstSequence, nextSequence - retained.length);
+        if (sequence < firstRetained) {
+            throw new ChangesExpiredException("Change " + sequence + " is no longer retained", firstRetained);
+        }
+        return retained[(int) (sequence % retained.length)];
+    }
+
+    private final class Delivery implements Flow.Subscription {
+        private final Flow.Subscriber<? super ChangeEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        // Only touched by drain(), which never runs concurrently with itself.
+        private boolean subscribed;
+        private long cursor;
+
+        Delivery(Flow.Subscriber<? super ChangeEvent> subscriber, long cursor) {
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("request must be positive, was " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            deliveries.remove(this);
+        }
+
+        void signal() {
+            if (pendingSignals.getAndIncrement() == 0) executor.execute(this::drain);
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    if (!subscribed) {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    deliver();
+                } catch (RuntimeException e) {
+                    // Subscribers must not throw; one that does is dropped.
+                    cancel();
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!cancelled) {
+                if (badRequest != null) {
+                    cancel();
+                    subscriber.onError(badRequest);
+                    return;
+                }
+                if (demand.get() == 0) return;
+                ChangeEvent event;
+                try {
+                    event = eventAt(cursor);
+                } catch (ChangesExpiredException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (event == null) return;
+                cursor++;
+                if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+                subscriber.onNext(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Ids of the documents grouped by a field that never changes, such as their category or author, so a
+ * lookup by that field does not scan every document.
+ */
+final class DocumentGroups {
+    private final Function<Document, String> key;
+    private final Map<String, Set<String>> idsByKey = new HashMap<>();
+
+    DocumentGroups(Function<Document, String> key) {
+        this.key = key;
+    }
+
+    void add(Document doc) {
+        idsByKey.computeIfAbsent(key.apply(doc), k -> new HashSet<>()).add(doc.getId());
+    }
+
+    void remove(Document doc) {
+        String k = key.apply(doc);
+        Set<String> ids = idsByKey.get(k);
+        if (ids != null && ids.remove(doc.getId()) && ids.isEmpty()) idsByKey.remove(k);
+    }
+
+    /** The keys that have at least one document, as a read-only view. */
+    Set<String> keys() {
+        return Collections.unmodifiableSet(idsByKey.keySet());
+    }
+
+    /** A read-only view of the ids in the group, empty if there is none. */
+    Set<String> ids(String k) {
+        Set<String> ids = idsByKey.get(k);
+        return ids == null ? Set.of() : Collections.unmodifiableSet(ids);
+    }
+}
@@ -0,0 +1,18 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+
+import java.util.List;
+
+/**
+ * One page of a sorted search.
+ *
+ * @param documents  the documents on this page, in the requested order
+ * @param nextCursor passed back to {@link MediaLabSystem#searchPage} to get the next page; {@code null} on
+ *                   the last page
+ */
+public record DocumentPage(List<Document> documents, String nextCursor) {
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+}
@@ -3,6 +3,7 @@ package gr.ntua.multimedia.service;
 import gr.ntua.multimedia.domain.Admin;
 import gr.ntua.multimedia.domain.Author;
 import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.ContentStore;
 import gr.ntua.multimedia.domain.Document;
 import gr.ntua.multimedia.domain.DocumentVersion;
 import gr.ntua.multimedia.domain.User;
@@ -10,40 +11,77 @@ import gr.ntua.multimedia.exception.PermissionDeniedException;
 import gr.ntua.multimedia.exception.ValidationException;
 import gr.ntua.multimedia.util.DateTimeUtil;
 import gr.ntua.multimedia.util.IdUtil;
+import gr.ntua.multimedia.util.TextUtil;
 import gr.ntua.multimedia.util.ValidationUtil;
 import gr.ntua.multimedia.service.FollowService;
+import gr.ntua.multimedia.service.SortedDocuments.SortKey;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 final class DocumentService {
+    private static final Comparator<RankedPage.Hit> BY_RANK = Comparator
+            .comparingDouble(RankedPage.Hit::score).reversed()
+            .thenComparing(h -> h.document().getTitle())
+            .thenComparing(h -> h.document().getId());
+
     private final Map<String, User> usersByUsername;
     private final Map<String, Category> categoriesById;
     private final Map<String, Document> documentsById;
     private final FollowService followService;
+    private final ContentStore contentStore;
+    private final AuthorNameIndex authorNames;
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final DocumentGroups byCategory = new DocumentGroups(Document::getCategoryId);
+    private final DocumentGroups byAuthor = new DocumentGroups(Document::getAuthorUsername);
+    private final UniqueIndex titlesInCategories = new UniqueIndex();
+    private final FullTextIndex fullTextIndex;
+    private final SortedDocuments sortedDocuments;
+    private final AccessBitmaps accessBitmaps = new AccessBitmaps();
+    private final SearchCache searchCache;
+    private final FuzzyIndex fuzzyTitles = new FuzzyIndex();
 
     DocumentService(Map<String, User> usersByUsername,
                     Map<String, Category> categoriesById,
                     Map<String, Document> documentsById,
-                    FollowService followService) {
+                    FollowService followService,
+                    ContentStore contentStore,
+                    AuthorNameIndex authorNames) {
         this.usersByUsername = usersByUsername;
         this.categoriesById = categoriesById;
         this.documentsById = documentsById;
         this.followService = followService;
+        this.contentStore = contentStore;
+        this.authorNames = authorNames;
+        this.searchCache = new SearchCache(authorNames);
+        this.fullTextIndex = new FullTextIndex(documentsById);
+        this.sortedDocuments = new SortedDocuments(documentsById);
+        for (Document doc : documentsById.values()) {
+            titleIndex.add(doc);
+            byCategory.add(doc);
+            byAuthor.add(doc);
+            titlesInCategories.put(titleKey(doc.getCategoryId(), doc.getNormalizedTitle()), doc.getId());
+            accessBitmaps.add(doc);
+            fuzzyTitles.add(doc.getId(), doc.getNormalizedTitle());
+        }
     }
 
     Document createDocument(Author actor, String title, String categoryId, String initialContent) {
         AccessControl.requireAuthor(actor, usersByUsername);
         ValidationUtil.requireNonBlank(categoryId, "categoryId");
-        String normalizedTitle = title.trim();
-
-        boolean exists = documentsById.values().stream()
-                .anyMatch(d -> d.getCategoryId().equals(categoryId) &&
-                        d.getTitle().equalsIgnoreCase(normalizedTitle));
-
-        if (exists) {
+        if (titlesInCategories.isTaken(titleKey(categoryId, TextUtil.normalize(title)), null)) {
             throw new ValidationException("A document with the same title already exists in this category.");
         }
 
@@ -52,7 +90,7 @@ final class DocumentService {
         }
         AccessControl.findCategory(categoryId, categoriesById);
         Document doc = new Document(IdUtil.newId(), title, categoryId, actor.getUsername(), DateTimeUtil.now(), initialContent);
-        documentsById.put(doc.getId(), doc);
+        addDocument(doc);
         return doc;
     }
 
@@ -62,7 +100,7 @@ final class DocumentService {
         if (!(actor.canEditDocument(doc) || actor instanceof Admin)) {
             throw new PermissionDeniedException("Not allowed to edit document");
         }
-        doc.addNewVersion(newContent, DateTimeUtil.now());
+        addVersion(doc, newContent, DateTimeUtil.now());
     }
 
     void deleteDocument(Author actor, String documentId) {
@@ -72,12 +110,71 @@ final class DocumentService {
         if (!canDelete) {
             throw new PermissionDeniedException("Not allowed to delete document");
         }
+        removeDocument(doc);
+    }
+
+    void removeDocument(Document doc) {
         Category c = categoriesById.get(doc.getCategoryId());
         String catName = (c != null) ? c.getName() : "<deleted:" + doc.getCategoryId() + ">";
 
-        followService.recordDocumentRemovalForFollowers(doc.getId(), doc.getTitle(), catName, usersByUsername);
+        followService.recordDocumentRemovalForFollowers(doc.getId(), doc.getTitle(), catName);
         documentsById.remove(doc.getId());
-        usersByUsername.values().forEach(u -> u.unfollowDocument(doc.getId()));
+        titleIndex.remove(doc);
+        byCategory.remove(doc);
+        byAuthor.remove(doc);
+        titlesInCategories.remove(titleKey(doc.getCategoryId(), doc.getNormalizedTitle()), doc.getId());
+        fullTextIndex.remove(doc.getId());
+        sortedDocuments.remove(doc);
+        accessBitmaps.remove(doc);
+        fuzzyTitles.remove(doc.getId());
+        searchCache.documentsChanged(doc.getCategoryId());
+        doc.releaseContents();
+        followService.documentRemoved(doc);
+    }
+
+    private void addDocument(Document doc) {
+        doc.attachContents(contentStore);
+        documentsById.put(doc.getId(), doc);
+        titleIndex.add(doc);
+        byCategory.add(doc);
+        byAuthor.add(doc);
+        titlesInCategories.put(titleKey(doc.getCategoryId(), doc.getNormalizedTitle()), doc.getId());
+        fullTextIndex.add(doc);
+        sortedDocuments.add(doc);
+        accessBitmaps.add(doc);
+        fuzzyTitles.add(doc.getId(), doc.getNormalizedTitle());
+        searchCache.documentsChanged(doc.getCategoryId());
+    }
+
+    private static String titleKey(String categoryId, String normalizedTitle) {
+        return categoryId + '\0' + normalizedTitle;
+    }
+
+    void restoreDocument(String documentId, String title, String categoryId, String authorUsername,
+                         LocalDateTime createdAt, String content) {
+        Document doc = new Document(documentId, title, categoryId, authorUsername, createdAt, content);
+        addDocument(doc);
+    }
+
+    void restoreVersion(String documentId, int versionNumber, LocalDateTime createdAt, String content) {
+        Document doc = AccessControl.findDocument(documentId, documentsById);
+        if (doc.getLatestVersionNumber() + 1 != versionNumber) {
+            throw new IllegalStateException("Version " + versionNumber + " does not follow v"
+                    + doc.getLatestVersionNumber() + " of document " + documentId);
+        }
+        addVersion(doc, content, createdAt);
+    }
+
+    private void addVersion(Document doc, String content, LocalDateTime createdAt) {
+        // Sort keys depend on the latest version, so the document leaves the sorted orders while it changes.
+        sortedDocuments.remove(doc);
+        try {
+            doc.addNewVersion(content, createdAt);
+        } finally {
+            sortedDocuments.add(doc);
+        }
+        fullTextIndex.update(doc);
+        followService.versionAdded(doc);
     }
 
     Document getDocumentForViewing(User actor, String documentId) {
@@ -92,14 +189,166 @@ final class DocumentService {
         return doc.getLastVersions(actor.maxVisibleVersions());
     }
 
-    List<Document> search(User actor, Optional<String> categoryId, Optional<String> titleContains, Optional<String> authorUsername) {
+    /** Ids of the documents in the category, as a read-only view. */
+    Set<String> documentIdsInCategory(String categoryId) {
+        return byCategory.ids(categoryId);
+    }
+
+    // Forgets the category's ordinal once its documents are removed.
+    void categoryRemoved(String categoryId) {
+        accessBitmaps.removeCategory(categoryId);
+    }
+
+    int countVisibleDocuments(User actor) {
         ValidationUtil.requireNonNull(actor, "actor");
-        List<Document> results = documentsById.values().stream()
-                .filter(d -> actor.canAccessCategory(d.getCategoryId()))
-                .filter(d -> categoryId.isEmpty() || d.getCategoryId().equals(categoryId.get()))
-                .filter(d -> titleContains.isEmpty() || d.getTitle().toLowerCase().contains(titleContains.get().toLowerCase()))
-                .filter(d -> authorUsername.isEmpty() || d.getAuthorUsername().equals(authorUsername.get()))
+        return accessBitmaps.visibleDocuments(actor).cardinality();
+    }
+
+    List<Document> search(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                          Optional<String> authorUsername, Optional<String> authorName) {
+        ValidationUtil.requireNonNull(actor, "actor");
+        return searchCache.get(actor, categoryId, titleContains, authorUsername, authorName,
+                () -> runSearch(actor, categoryId, titleContains, authorUsername, authorName));
+    }
+
+    SearchCacheStats searchCacheStats() {
+        return searchCache.stats();
+    }
+
+    private List<Document> runSearch(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                                     Optional<String> authorUsername, Optional<String> authorName) {
+        Selection selection = select(actor, categoryId, titleContains, authorUsername, authorName);
+        Stream<Document> candidates = selection.candidateIds() != null
+                ? selection.candidateIds().stream().map(documentsById::get)
+                : accessBitmaps.visibleDocuments(actor).stream().mapToObj(accessBitmaps::document);
+        List<Document> results = candidates
+                .filter(selection.matches())
                 .toList();
         return Collections.unmodifiableList(results);
     }
-}
\ No newline at end of file
+
+    DocumentPage searchPage(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                            Optional<String> authorUsername, Optional<String> authorName,
+                            DocumentSort sort, boolean ascending, int pageSize, String cursor) {
+        Selection selection = select(actor, categoryId, titleContains, authorUsername, authorName);
+        ValidationUtil.requireNonNull(sort, "sort");
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be >= 1");
+        }
+        Comparator<SortKey> order = ascending ? SortKey.ORDER : SortKey.ORDER.reversed();
+        SortKey after = cursor == null ? null : SortKey.fromCursor(cursor, sort, ascending);
+
+        // One document more than the page holds tells whether there is a next page.
+        List<Document> page = new ArrayList<>();
+        if (selection.candidateIds() == null) {
+            NavigableMap<SortKey, Document> sorted = sortedDocuments.order(sort);
+            if (!ascending) sorted = sorted.descendingMap();
+            if (after != null) sorted = sorted.tailMap(after, false);
+            for (Document doc : sorted.values()) {
+                if (!selection.matches().test(doc)) continue;
+                page.add(doc);
+                if (page.size() > pageSize) break;
+            }
+        } else {
+            // The candidates are ranked directly, keeping the first ones after the cursor, the last of them on top.
+            PriorityQueue<SortKey> first = new PriorityQueue<>(order.reversed());
+            for (String id : selection.candidateIds()) {
+                Document doc = documentsById.get(id);
+                if (!selection.matches().test(doc)) continue;
+                SortKey key = SortKey.of(sort, doc);
+                if (after != null && order.compare(key, after) <= 0) continue;
+                first.add(key);
+                if (first.size() - 1 > pageSize) first.poll();
+            }
+            List<SortKey> keys = new ArrayList<>(first);
+            keys.sort(order);
+            for (SortKey key : keys) page.add(documentsById.get(key.documentId()));
+        }
+        String nextCursor = null;
+        if (page.size() > pageSize) {
+            page.remove(pageSize);
+            nextCursor = SortKey.of(sort, page.get(pageSize - 1)).toCursor(sort, ascending);
+        }
+        return new DocumentPage(List.copyOf(page), nextCursor);
+    }
+
+    /**
+     * Documents to consider for a search: {@code candidateIds} come from the smallest index lookup the
+     * criteria allow, or are {@code null} if no criterion narrows the search. {@code matches} checks every
+     * criterion, so it decides for candidates found either way.
+     */
+    private record Selection(Collection<String> candidateIds, Predicate<Document> matches) {}
+
+    private Selection select(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                             Optional<String> authorUsername, Optional<String> authorName) {
+        ValidationUtil.requireNonNull(actor, "actor");
+        Collection<String> candidateIds = null;
+        if (categoryId.isPresent()) candidateIds = byCategory.ids(categoryId.get());
+        if (authorUsername.isPresent()) {
+            Set<String> ids = byAuthor.ids(authorUsername.get());
+            if (candidateIds == null || ids.size() < candidateIds.size()) candidateIds = ids;
+        }
+        Set<String> namedAuthors = authorName.filter(n -> !n.isBlank()).map(this::authorsNamed).orElse(null);
+        if (namedAuthors != null) {
+            List<String> ids = new ArrayList<>();
+            for (String username : namedAuthors) ids.addAll(byAuthor.ids(username));
+            if (candidateIds == null || ids.size() < candidateIds.size()) candidateIds = ids;
+        }
+        if (candidateIds == null && titleContains.isPresent()) candidateIds = titleIndex.matching(titleContains.get());
+
+        Predicate<String> titleMatches = titleContains.isPresent() ? titleIndex.matcher(titleContains.get()) : id -> true;
+        Predicate<Document> matches = d -> titleMatches.test(d.getId())
+                && accessBitmaps.canAccess(actor, d)
+                && (categoryId.isEmpty() || d.getCategoryId().equals(categoryId.get()))
+                && (authorUsername.isEmpty() || d.getAuthorUsername().equals(authorUsername.get()))
+                && (namedAuthors == null || namedAuthors.contains(d.getAuthorUsername()));
+        return new Selection(candidateIds, matches);
+    }
+
+    // Documents whose author was deleted keep the username, which is matched as their name.
+    private Set<String> authorsNamed(String name) {
+        Set<String> usernames = new HashSet<>(authorNames.matching(name));
+        String normalized = TextUtil.normalize(name);
+        for (String username : byAuthor.keys()) {
+            if (!usersByUsername.containsKey(username) && TextUtil.normalize(username).contains(normalized)) usernames.add(username);
+        }
+        return usernames;
+    }
+
+    RankedPage searchContent(User actor, String query, int pageIndex, int pageSize) {
+        ValidationUtil.requireNonNull(actor, "actor");
+        ValidationUtil.requireNonBlank(query, "query");
+        if (pageIndex < 0) {
+            throw new IllegalArgumentException("pageIndex must be >= 0");
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be >= 1");
+        }
+        // Only the best hits up to the end of the requested page are kept, the worst of them on top.
+        long keep = (long) (pageIndex + 1) * pageSize;
+        PriorityQueue<RankedPage.Hit> best = new PriorityQueue<>(BY_RANK.reversed());
+        int totalHits = 0;
+        for (Map.Entry<String, Double> e : fullTextIndex.search(query).entrySet()) {
+            Document doc = documentsById.get(e.getKey());
+            if (!accessBitmaps.canAccess(actor, doc)) continue;
+            totalHits++;
+            best.add(new RankedPage.Hit(doc, e.getValue()));
+            if (best.size() > keep) best.poll();
+        }
+        List<RankedPage.Hit> ranked = new ArrayList<>(best);
+        ranked.sort(BY_RANK);
+        int from = (int) Math.min((long) pageIndex * pageSize, ranked.size());
+        return new RankedPage(List.copyOf(ranked.subList(from, ranked.size())), totalHits, pageIndex, pageSize);
+    }
+
+    List<FuzzyMatch<Document>> suggestTitles(User actor, String query, int limit) {
+        ValidationUtil.requireNonNull(actor, "actor");
+        ValidationUtil.requireNonBlank(query, "query");
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be >= 1");
+        }
+        return fuzzyTitles.top(query, limit, id -> accessBitmaps.canAccess(actor, documentsById.get(id))).stream()
+                .map(e -> new FuzzyMatch<>(documentsById.get(e.getKey()), e.getValue()))
+                .toList();
+    }
+}
@@ -0,0 +1,15 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * Orders in which {@link MediaLabSystem#searchPage} returns documents. Ties are broken by document id.
+ */
+public enum DocumentSort {
+    /** By title, ignoring case. */
+    TITLE,
+    /** By the time the document was created. */
+    CREATED_AT,
+    /** By the time its latest version was created. */
+    LAST_MODIFIED,
+    /** By its number of versions. */
+    VERSION_COUNT
+}
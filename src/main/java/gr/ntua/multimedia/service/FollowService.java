@@ -1,68 +1,197 @@
 package gr.ntua.multimedia.service;
 
 import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.RemovalNotice;
 import gr.ntua.multimedia.domain.User;
 import gr.ntua.multimedia.util.ValidationUtil;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
 import gr.ntua.multimedia.domain.Category;
 
+/**
+ * Follows and the notifications they produce.
+ * <p>
+ * Notifications are pushed to the followers as documents change, so showing them at login only visits
+ * what is unread. A new version lists the document as updated on the follower, once however many versions
+ * follow, until they see it or unfollow; a deleted document leaves a {@link RemovalNotice} on them. Both
+ * are saved with the user and bounded, by {@link User#MAX_UPDATED_DOCUMENTS} and
+ * {@link User#MAX_REMOVAL_NOTICES}. Listed documents are checked against the follows and seen versions
+ * whenever the system is created, so a store saved before they were listed has them rebuilt.
+ * <p>
+ * Every user's listed documents they can currently access are also counted, for {@link #unreadCounts}.
+ * The count changes with the list and is only recounted when the user's access changes.
+ */
 final class FollowService {
     private final Map<String, Document> documentsById;
-    private final Map<String, List<RemovedDocInfo>> pendingRemovedByUsername = new HashMap<>();
-
-    FollowService(Map<String, Document> documentsById) {
+    private final Map<String, User> usersByUsername;
+    // Users without any accessible listed document have no entry.
+    private final Map<String, Integer> accessibleUpdatesByUsername = new HashMap<>();
+    // Reverse of User.getFollowedDocumentIds(), so removals only visit the followers. It may name users
+    // whose follow was dropped on a stale User object, so each entry is checked against the user.
+    private final Map<String, Set<String>> followersByDocumentId = new HashMap<>();
+
+    FollowService(Map<String, Document> documentsById, Map<String, User> usersByUsername) {
         this.documentsById = documentsById;
+        this.usersByUsername = usersByUsername;
+        usersByUsername.values().forEach(this::userAdded);
     }
 
     void followDocument(User actor, String documentId, DocumentService documentService) {
         Document doc = documentService.getDocumentForViewing(actor, documentId);
-        actor.followDocument(doc.getId());
+        follow(actor, doc.getId());
     }
 
     void unfollowDocument(User actor, String documentId) {
         ValidationUtil.requireNonNull(actor, "actor");
-        actor.unfollowDocument(documentId);
-    }
-    void recordDocumentRemovalForFollowers(String docId, String title, String categoryName, Map<String, User> usersByUsername) {
-        for (User u : usersByUsername.values()) {
-            if (u.isFollowing(docId)) {
-                pendingRemovedByUsername
-                        .computeIfAbsent(u.getUsername(), k -> new ArrayList<>())
-                        .add(new RemovedDocInfo(title, categoryName));
+        unfollow(actor, documentId);
+    }
+
+    void follow(User user, String documentId) {
+        user.followDocument(documentId);
+        followersByDocumentId.computeIfAbsent(documentId, id -> new HashSet<>()).add(user.getUsername());
+        refreshInbox(user, documentId);
+    }
+
+    void unfollow(User user, String documentId) {
+        Document doc = documentsById.get(documentId);
+        if (doc != null) removeFromInbox(user, doc);
+        user.unfollowDocument(documentId);
+        Set<String> followers = followersByDocumentId.get(documentId);
+        if (followers != null && followers.remove(user.getUsername()) && followers.isEmpty()) {
+            followersByDocumentId.remove(documentId);
+        }
+    }
+
+    void userAdded(User user) {
+        for (String documentId : user.getFollowedDocumentIds()) {
+            followersByDocumentId.computeIfAbsent(documentId, id -> new HashSet<>()).add(user.getUsername());
+        }
+        user.retainListedAsUpdated(documentId -> {
+            Document doc = documentsById.get(documentId);
+            return doc != null && user.hasNewVersion(documentId, doc.getLatestVersionNumber());
+        });
+        recountAccessible(user);
+    }
+
+    void userRemoved(User user) {
+        accessibleUpdatesByUsername.remove(user.getUsername());
+        for (String documentId : user.getFollowedDocumentIds()) {
+            Set<String> followers = followersByDocumentId.get(documentId);
+            if (followers != null && followers.remove(user.getUsername()) && followers.isEmpty()) {
+                followersByDocumentId.remove(documentId);
             }
         }
     }
 
+    // Called once the user's rebuilt object is in place.
+    void accessChanged(User user) {
+        recountAccessible(user);
+    }
+
+    UnreadCounts unreadCounts(User user) {
+        User current = usersByUsername.getOrDefault(user.getUsername(), user);
+        return new UnreadCounts(accessibleUpdatesByUsername.getOrDefault(user.getUsername(), 0),
+                current.getRemovalNoticeCount());
+    }
+
+    void versionAdded(Document doc) {
+        for (User u : followers(doc.getId())) refreshInbox(u, doc.getId());
+    }
+
+    void recordDocumentRemovalForFollowers(String docId, String title, String categoryName) {
+        RemovalNotice notice = new RemovalNotice(title, categoryName);
+        for (User u : followers(docId)) u.addRemovalNotice(notice);
+    }
+
+    // Unfollows a document that no longer exists, for its followers only.
+    void documentRemoved(Document doc) {
+        Set<String> followers = followersByDocumentId.remove(doc.getId());
+        if (followers == null) return;
+        for (String username : followers) {
+            User u = usersByUsername.get(username);
+            if (u == null) continue;
+            removeFromInbox(u, doc);
+            u.unfollowDocument(doc.getId());
+        }
+    }
+
+    private List<User> followers(String docId) {
+        List<User> followers = new ArrayList<>();
+        for (String username : followersByDocumentId.getOrDefault(docId, Set.of())) {
+            User u = usersByUsername.get(username);
+            if (u != null && u.isFollowing(docId)) followers.add(u);
+        }
+        return followers;
+    }
+
+    private void refreshInbox(User user, String documentId) {
+        Document doc = documentsById.get(documentId);
+        if (doc == null) return;
+        if (!user.hasNewVersion(documentId, doc.getLatestVersionNumber())) {
+            removeFromInbox(user, doc);
+            return;
+        }
+        if (user.isListedAsUpdated(documentId)) return;
+        String dropped = user.listAsUpdated(documentId);
+        if (isAccessible(user.getUsername(), doc)) adjustAccessible(user, 1);
+        if (dropped != null && isAccessible(user.getUsername(), documentsById.get(dropped))) adjustAccessible(user, -1);
+    }
+
+    // Takes the document rather than its id, because a removed one is no longer in documentsById.
+    private void removeFromInbox(User user, Document doc) {
+        if (user.unlistAsUpdated(doc.getId()) && isAccessible(user.getUsername(), doc)) adjustAccessible(user, -1);
+    }
+
+    private void recountAccessible(User user) {
+        int accessible = 0;
+        for (String documentId : user.getUpdatedDocumentIds()) {
+            if (isAccessible(user.getUsername(), documentsById.get(documentId))) accessible++;
+        }
+        if (accessible == 0) {
+            accessibleUpdatesByUsername.remove(user.getUsername());
+        } else {
+            accessibleUpdatesByUsername.put(user.getUsername(), accessible);
+        }
+    }
+
+    private void adjustAccessible(User user, int delta) {
+        accessibleUpdatesByUsername.merge(user.getUsername(), delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    // Asked of the current object for the user, whose access only changes together with accessChanged.
+    private boolean isAccessible(String username, Document doc) {
+        User user = usersByUsername.get(username);
+        return doc != null && user != null && user.canAccessCategory(doc.getCategoryId());
+    }
+
     String buildPopupMessageAndConsume(User actor, Map<String, Document> documentsById, Map<String, Category> categoriesById) {
 
         // 1) Updated docs (new versions)
         List<String> updatedLines = new ArrayList<>();
-        for (String docId : actor.getFollowedDocumentIds()) {
+        for (String docId : actor.getUpdatedDocumentIds()) {
             Document doc = documentsById.get(docId);
             if (doc == null) continue;
 
             // αν ο actor δεν έχει πρόσβαση σε κατηγορία, το αγνοούμε
             if (!actor.canAccessCategory(doc.getCategoryId())) continue;
 
-            if (actor.hasNewVersion(docId, doc.getLatestVersionNumber())) {
-                Category c = categoriesById.get(doc.getCategoryId());
-                String catName = (c != null) ? c.getName() : "<deleted:" + doc.getCategoryId() + ">";
-                updatedLines.add(doc.getTitle() + " | " + catName);
-            }
+            Category c = categoriesById.get(doc.getCategoryId());
+            String catName = (c != null) ? c.getName() : "<deleted:" + doc.getCategoryId() + ">";
+            updatedLines.add(doc.getTitle() + " | " + catName);
         }
 
-        // 2) Removed docs (pending)
-        List<RemovedDocInfo> removed = pendingRemovedByUsername.getOrDefault(actor.getUsername(), List.of());
-        List<String> removedLines = removed.stream().map(RemovedDocInfo::asLine).toList();
+        // 2) Removed docs (pending), held by the current object for the user
+        User current = usersByUsername.getOrDefault(actor.getUsername(), actor);
+        List<String> removedLines = current.getRemovalNotices().stream()
+                .map(n -> n.getTitle() + " | " + n.getCategoryName())
+                .toList();
 
         // consume removed so it won't show again
-        if (!removed.isEmpty()) {
-            pendingRemovedByUsername.remove(actor.getUsername());
-        }
+        current.clearRemovalNotices();
 
         if (updatedLines.isEmpty() && removedLines.isEmpty()) {
             return null;
@@ -89,6 +218,11 @@ final class FollowService {
 
     void markDocumentSeen(User actor, String documentId, DocumentService documentService) {
         Document doc = documentService.getDocumentForViewing(actor, documentId);
-        actor.markSeen(doc.getId(), doc.getLatestVersionNumber());
+        seen(actor, doc.getId(), doc.getLatestVersionNumber());
+    }
+
+    void seen(User user, String documentId, int versionNumber) {
+        user.markSeen(documentId, versionNumber);
+        refreshInbox(user, documentId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Positional inverted index over the latest content of every document, scored with BM25.
+ * <p>
+ * A query is a list of words and {@code "quoted phrases"}. Documents must contain every phrase, with its
+ * words next to each other and in order; words outside quotes are optional and only add to the score.
+ * <p>
+ * The index is built on the first search rather than when the system is created, since reading every
+ * document's content would defeat lazily loaded histories. From then on it is kept up to date as
+ * documents are created, edited and removed.
+ */
+final class FullTextIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Document> documentsById;
+    private volatile boolean built;
+
+    // term -> document id -> ascending positions of the term in that document's content
+    private final Map<String, Map<String, int[]>> postings = new HashMap<>();
+    private final Map<String, String[]> termsByDocumentId = new HashMap<>();
+    private final Map<String, Integer> lengthByDocumentId = new HashMap<>();
+    private long totalLength;
+
+    FullTextIndex(Map<String, Document> documentsById) {
+        this.documentsById = documentsById;
+    }
+
+    void add(Document doc) {
+        if (built) index(doc);
+    }
+
+    // Re-indexes the document after a new version was added.
+    void update(Document doc) {
+        if (!built) return;
+        remove(doc.getId());
+        index(doc);
+    }
+
+    void remove(String documentId) {
+        String[] terms = termsByDocumentId.remove(documentId);
+        if (terms == null) return;
+        totalLength -= lengthByDocumentId.remove(documentId);
+        for (String term : terms) {
+            Map<String, int[]> docs = postings.get(term);
+            docs.remove(documentId);
+            if (docs.isEmpty()) postings.remove(term);
+        }
+    }
+
+    /** Scores of the documents matching {@code query}, by document id, in no particular order. */
+    Map<String, Double> search(String query) {
+        if (!built) build();
+        List<List<String>> phrases = new ArrayList<>();
+        Set<String> terms = new LinkedHashSet<>();
+        parse(query, phrases, terms);
+
+        Set<String> candidates = new LinkedHashSet<>();
+        if (phrases.isEmpty()) {
+            for (String term : terms) candidates.addAll(postings.getOrDefault(term, Map.of()).keySet());
+        } else {
+            List<Map<String, int[]>> required = new ArrayList<>();
+            for (List<String> phrase : phrases) {
+                for (String term : phrase) {
+                    Map<String, int[]> docs = postings.get(term);
+                    if (docs == null) return Map.of();
+                    required.add(docs);
+                }
+            }
+            required.sort(Comparator.comparingInt(Map::size));
+            candidates:
+            for (String id : required.get(0).keySet()) {
+                for (int i = 1; i < required.size(); i++) {
+                    if (!required.get(i).containsKey(id)) continue candidates;
+                }
+                for (List<String> phrase : phrases) {
+                    if (!containsPhrase(id, phrase)) continue candidates;
+                }
+                candidates.add(id);
+            }
+        }
+
+        double averageLength = termsByDocumentId.isEmpty() ? 0 : (double) totalLength / termsByDocumentId.size();
+        Map<String, Double> scores = HashMap.newHashMap(candidates.size());
+        for (String id : candidates) {
+            double lengthNorm = K1 * (1 - B + B * lengthByDocumentId.get(id) / averageLength);
+            double score = 0;
+            for (String term : terms) {
+                Map<String, int[]> docs = postings.get(term);
+                int[] positions = docs == null ? null : docs.get(id);
+                if (positions == null) continue;
+                double idf = Math.log(1 + (termsByDocumentId.size() - docs.size() + 0.5) / (docs.size() + 0.5));
+                score += idf * positions.length * (K1 + 1) / (positions.length + lengthNorm);
+            }
+            scores.put(id, score);
+        }
+        return scores;
+    }
+
+    // Searches may run concurrently; once built, the index only changes along with the documents.
+    private synchronized void build() {
+        if (built) return;
+        documentsById.values().forEach(this::index);
+        built = true;
+    }
+
+    private void index(Document doc) {
+        List<String> tokens = tokens(doc.getLatestContent());
+        Map<String, List<Integer>> positionsByTerm = new HashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            positionsByTerm.computeIfAbsent(tokens.get(i), t -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> e : positionsByTerm.entrySet()) {
+            int[] positions = e.getValue().stream().mapToInt(Integer::intValue).toArray();
+            postings.computeIfAbsent(e.getKey(), t -> new HashMap<>()).put(doc.getId(), positions);
+        }
+        termsByDocumentId.put(doc.getId(), positionsByTerm.keySet().toArray(String[]::new));
+        lengthByDocumentId.put(doc.getId(), tokens.size());
+        totalLength += tokens.size();
+    }
+
+    private boolean containsPhrase(String documentId, List<String> phrase) {
+        int[] starts = postings.get(phrase.get(0)).get(documentId);
+        next:
+        for (int start : starts) {
+            for (int i = 1; i < phrase.size(); i++) {
+                int[] positions = postings.get(phrase.get(i)).get(documentId);
+                if (Arrays.binarySearch(positions, start + i) < 0) continue next;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Text between double quotes becomes a phrase; its words are scored like the other terms too.
+    private static void parse(String query, List<List<String>> phrases, Set<String> terms) {
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> tokens = tokens(parts[i]);
+            if (i % 2 == 1 && !tokens.isEmpty()) phrases.add(tokens);
+            terms.addAll(tokens);
+        }
+    }
+
+    /** Splits {@code text} into {@link TextUtil#normalize normalized} runs of letters and digits. */
+    static List<String> tokens(String text) {
+        text = TextUtil.normalize(text);
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(cp = text.codePointAt(i))) i += Character.charCount(cp);
+            tokens.add(text.substring(start, i));
+        }
+        return tokens;
+    }
+}
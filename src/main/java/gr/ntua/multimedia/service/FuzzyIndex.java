@@ -0,0 +1,153 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Trigram-similarity index over short names, for finding them despite typos.
+ * <p>
+ * Names are normalized (case and accents dropped), padded with spaces so their first and last letters
+ * form trigrams of their own, and split into the set of their trigrams. The similarity of a name to a query is the Dice
+ * coefficient of the two sets: twice the trigrams they share over the trigrams they have together. One
+ * wrong letter only spoils the (at most three) trigrams around it, so the name still scores high.
+ * <p>
+ * Only names sharing a trigram with the query are looked at. Names are numbered internally and the
+ * posting lists hold those numbers, so counting shared trigrams is a pass over int arrays.
+ */
+final class FuzzyIndex {
+    /** Names scoring lower than this are not considered matches at all. */
+    static final double MIN_SIMILARITY = 0.3;
+
+    private record Scored(int ordinal, String name, double similarity) {}
+
+    private static final Comparator<Scored> BEST_FIRST = Comparator
+            .comparingDouble(Scored::similarity).reversed()
+            .thenComparing(Scored::name)
+            .thenComparingInt(Scored::ordinal);
+
+    private final Map<String, Postings> postingsByTrigram = new HashMap<>();
+    private final Map<String, Integer> ordinalById = new HashMap<>();
+    private final BitSet freeOrdinals = new BitSet();
+    private String[] ids = new String[16];
+    private String[] names = new String[16];
+    private String[][] trigrams = new String[16][];
+    private int[] shared = new int[16];       // scratch for top(), which is synchronized; all zero between calls
+    private int size;
+
+    /** @param normalizedName the name as returned by {@link TextUtil#normalize} */
+    void add(String id, String normalizedName) {
+        remove(id);
+        int ordinal = freeOrdinals.nextSetBit(0);
+        if (ordinal >= 0) {
+            freeOrdinals.clear(ordinal);
+        } else {
+            ordinal = size++;
+            if (ordinal == ids.length) grow();
+        }
+        String[] grams = trigrams(normalizedName).toArray(String[]::new);
+        ids[ordinal] = id;
+        names[ordinal] = normalizedName;
+        trigrams[ordinal] = grams;
+        ordinalById.put(id, ordinal);
+        for (String gram : grams) postingsByTrigram.computeIfAbsent(gram, g -> new Postings()).add(ordinal);
+    }
+
+    void remove(String id) {
+        Integer ordinal = ordinalById.remove(id);
+        if (ordinal == null) return;
+        for (String gram : trigrams[ordinal]) {
+            Postings postings = postingsByTrigram.get(gram);
+            if (postings.remove(ordinal)) postingsByTrigram.remove(gram);
+        }
+        ids[ordinal] = null;
+        names[ordinal] = null;
+        trigrams[ordinal] = null;
+        freeOrdinals.set(ordinal);
+    }
+
+    /**
+     * Ids of the up to {@code limit} names most similar to {@code query} that {@code accept} lets through,
+     * most similar first, with their similarity.
+     */
+    synchronized List<Map.Entry<String, Double>> top(String query, int limit, Predicate<String> accept) {
+        Set<String> queryGrams = trigrams(TextUtil.normalize(query));
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (String gram : queryGrams) {
+            Postings postings = postingsByTrigram.get(gram);
+            if (postings == null) continue;
+            for (int i = 0; i < postings.size; i++) {
+                int ordinal = postings.ordinals[i];
+                if (shared[ordinal]++ == 0) {
+                    if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = ordinal;
+                }
+            }
+        }
+        // The worst of the best so far is on top, to be dropped when a better one comes.
+        PriorityQueue<Scored> best = new PriorityQueue<>(BEST_FIRST.reversed());
+        for (int i = 0; i < touchedCount; i++) {
+            int ordinal = touched[i];
+            double similarity = 2.0 * shared[ordinal] / (queryGrams.size() + trigrams[ordinal].length);
+            shared[ordinal] = 0;
+            if (similarity < MIN_SIMILARITY) continue;
+            if (best.size() == limit && similarity < best.peek().similarity()) continue;
+            if (!accept.test(ids[ordinal])) continue;
+            best.add(new Scored(ordinal, names[ordinal], similarity));
+            if (best.size() > limit) best.poll();
+        }
+        List<Scored> ranked = new ArrayList<>(best);
+        ranked.sort(BEST_FIRST);
+        List<Map.Entry<String, Double>> result = new ArrayList<>(ranked.size());
+        for (Scored s : ranked) result.add(Map.entry(ids[s.ordinal()], s.similarity()));
+        return result;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        trigrams = Arrays.copyOf(trigrams, capacity);
+        shared = Arrays.copyOf(shared, capacity);
+    }
+
+    private static Set<String> trigrams(String normalized) {
+        String padded = "  " + normalized + " ";
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) grams.add(padded.substring(i, i + 3));
+        return grams;
+    }
+
+    /** Unordered ordinals of the names containing one trigram. */
+    private static final class Postings {
+        int[] ordinals = new int[4];
+        int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) ordinals = Arrays.copyOf(ordinals, size * 2);
+            ordinals[size++] = ordinal;
+        }
+
+        /** Returns whether the list is now empty. */
+        boolean remove(int ordinal) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    ordinals[i] = ordinals[--size];
+                    break;
+                }
+            }
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * A result of a typo-tolerant lookup.
+ *
+ * @param item       the matched document or category
+ * @param similarity how close its name is to the query, from 0 (nothing in common) to 1 (the same once
+ *                   case is ignored)
+ */
+public record FuzzyMatch<T>(T item, double similarity) {}
@@ -3,27 +3,46 @@ package gr.ntua.multimedia.service;
 import gr.ntua.multimedia.domain.Admin;
 import gr.ntua.multimedia.domain.Author;
 import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.ContentStore;
 import gr.ntua.multimedia.domain.Document;
 import gr.ntua.multimedia.domain.DocumentVersion;
 import gr.ntua.multimedia.domain.User;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Core application service that implements business use-cases for the Document Management System.
  * <p>
  * This class is the public facade that owns the in-memory state and delegates operations
  * to smaller internal services.
+ * <p>
+ * The facade may be shared by any number of threads. Every method is atomic: operations that change
+ * the state run one at a time, each with its mutation listeners, and every query sees the state as it
+ * was between two of them. Queries run concurrently with each other. Several calls are not atomic
+ * together, unless made through {@link #readAtomically}.
+ * <p>
+ * Returned users, categories and documents are the live objects, which later changes modify in place.
+ * Another thread may read them safely only while no change can run, i.e. within {@link #readAtomically}.
+ * Mutation listeners must not call back into the facade.
  */
 public class MediaLabSystem {
     private final Map<String, User> usersByUsername;
     private final Map<String, Category> categoriesById;
     private final Map<String, Document> documentsById;
+    private final ContentStore contentStore = new ContentStore();
+    private final AuthorNameIndex authorNames = new AuthorNameIndex();
 
     private final AuthService authService;
     private final UserService userService;
@@ -31,6 +50,12 @@ public class MediaLabSystem {
     private final DocumentService documentService;
     private final FollowService followService;
 
+    private final List<MutationListener> mutationListeners = new ArrayList<>();
+    private final StampedLock lock = new StampedLock();
+    // Set on threads within readAtomically, whose reads already hold the (non-reentrant) read lock.
+    private final ThreadLocal<Boolean> readingAtomically = ThreadLocal.withInitial(() -> false);
+    private final ChangeStream changeStream = new ChangeStream(ChangeStream.DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+
     /**
      * Creates a new system with empty state and a default administrator account.
      */
@@ -39,10 +64,10 @@ public class MediaLabSystem {
         this.categoriesById = new HashMap<>();
         this.documentsById = new HashMap<>();
         this.authService = new AuthService(this.usersByUsername);
-        this.userService = new UserService(this.usersByUsername, this.categoriesById);
-        this.followService = new FollowService(this.documentsById);
-        this.categoryService = new CategoryService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService);
-        this.documentService = new DocumentService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService);
+        this.followService = new FollowService(this.documentsById, this.usersByUsername);
+        this.userService = new UserService(this.usersByUsername, this.categoriesById, this.authorNames, this.followService);
+        this.documentService = new DocumentService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService, this.contentStore, this.authorNames);
+        this.categoryService = new CategoryService(this.usersByUsername, this.categoriesById, this.documentsById, this.documentService);
 
         userService.bootstrapDefaultAdmin();
     }
@@ -60,99 +85,387 @@ public class MediaLabSystem {
         this.usersByUsername = new HashMap<>(usersByUsername);
         this.categoriesById = new HashMap<>(categoriesById);
         this.documentsById = new HashMap<>(documentsById);
+        this.documentsById.values().forEach(d -> d.attachContents(contentStore));
         this.authService = new AuthService(this.usersByUsername);
-        this.userService = new UserService(this.usersByUsername, this.categoriesById);
-        this.followService = new FollowService(this.documentsById);
-        this.categoryService = new CategoryService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService);
-        this.documentService = new DocumentService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService);
+        this.followService = new FollowService(this.documentsById, this.usersByUsername);
+        this.userService = new UserService(this.usersByUsername, this.categoriesById, this.authorNames, this.followService);
+        this.documentService = new DocumentService(this.usersByUsername, this.categoriesById, this.documentsById, this.followService, this.contentStore, this.authorNames);
+        this.categoryService = new CategoryService(this.usersByUsername, this.categoriesById, this.documentsById, this.documentService);
         if (!this.usersByUsername.containsKey("medialab")) {
             userService.bootstrapDefaultAdmin();
         }
     }
 
+    /**
+     * Registers a listener that is notified after every successful state-changing operation.
+     *
+     * @param listener the listener to notify
+     */
+    public void addMutationListener(MutationListener listener) {
+        write(() -> mutationListeners.add(Objects.requireNonNull(listener, "listener cannot be null")));
+    }
+
+    /**
+     * Stream of the mutations applied through this facade from now on, for consumers such as indexers,
+     * audit exporters and replicas. Replayed mutations are not included, and added users come without
+     * their password hash.
+     * <p>
+     * Every event carries its sequence number; subscribers receive events as they request them, on a
+     * pool thread. Only the latest events are retained, so a subscriber that falls further behind is
+     * signalled a {@link gr.ntua.multimedia.exception.ChangesExpiredException} rather than slowing down
+     * the writers.
+     *
+     * @return a publisher each subscriber of which starts at the next mutation
+     */
+    public Flow.Publisher<ChangeEvent> changes() {
+        return changeStream;
+    }
+
+    /**
+     * Like {@link #changes()}, but resumes after an event a subscriber already handled: the first event
+     * delivered is the one numbered {@code sequence + 1}.
+     *
+     * A sequence beyond {@link #latestChangeSequence()} is signalled as an {@link IllegalArgumentException},
+     * since it cannot have been handled.
+     *
+     * @param sequence the sequence number of the last event handled, or 0 to start at the very first one
+     */
+    public Flow.Publisher<ChangeEvent> changesAfter(long sequence) {
+        return subscriber -> changeStream.subscribeAfter(subscriber, sequence);
+    }
+
+    /**
+     * Continues the numbering of {@link #changes()} after {@code sequence} rather than at 1, so that a
+     * storage which numbers mutations across restarts can keep the two in step. Must be called before
+     * any mutation is made.
+     *
+     * @throws IllegalStateException if a mutation was already published
+     */
+    public void continueChangesAfter(long sequence) {
+        write(() -> changeStream.startAfter(sequence));
+    }
+
+    /** Sequence number of the latest mutation applied through this facade, 0 if none yet. */
+    public long latestChangeSequence() {
+        return changeStream.latestSequence();
+    }
+
     public void addUser(Admin adminActor, String firstName, String lastName, String role,
                         Set<String> allowedCategoryIds, String username, String plainPassword) {
-        userService.addUser(adminActor, firstName, lastName, role, allowedCategoryIds, username, plainPassword);
+        write(() -> {
+            userService.addUser(adminActor, firstName, lastName, role, allowedCategoryIds, username, plainPassword);
+            User created = usersByUsername.get(username);
+            publish(new Mutation.UserAdded(created.getUsername(), created.getPasswordHash(), created.getFirstName(),
+                    created.getLastName(), created.getRoleName(), Set.copyOf(created.getAllowedCategoryIds())));
+        });
     }
 
     public void deleteUser(Admin adminActor, String username) {
-        userService.deleteUser(adminActor, username);
+        write(() -> {
+            userService.deleteUser(adminActor, username);
+            publish(new Mutation.UserDeleted(username));
+        });
     }
 
     public void updateUserCategories(Admin adminActor, String targetUsername, Set<String> newAllowedCategoryIds) {
-        userService.updateUserCategories(adminActor, targetUsername, newAllowedCategoryIds);
+        write(() -> {
+            userService.updateUserCategories(adminActor, targetUsername, newAllowedCategoryIds);
+            User updated = usersByUsername.get(targetUsername);
+            publish(new Mutation.UserAccessChanged(targetUsername, Set.copyOf(updated.getAllowedCategoryIds())));
+        });
     }
     public List<User> listUsers(Admin adminActor) {
-        return userService.listUsers(adminActor);
+        return read(() -> userService.listUsers(adminActor));
     }
 
     public Category addCategory(Admin adminActor, String categoryName) {
-        return categoryService.addCategory(adminActor, categoryName);
+        return write(() -> {
+            Category category = categoryService.addCategory(adminActor, categoryName);
+            publish(new Mutation.CategoryAdded(category.getId(), category.getName()));
+            return category;
+        });
     }
 
     public void renameCategory(Admin adminActor, String categoryId, String newName) {
-        categoryService.renameCategory(adminActor, categoryId, newName);
+        write(() -> {
+            categoryService.renameCategory(adminActor, categoryId, newName);
+            publish(new Mutation.CategoryRenamed(categoryId, categoriesById.get(categoryId).getName()));
+        });
     }
 
     public void deleteCategory(Admin adminActor, String categoryId) {
-        categoryService.deleteCategory(adminActor, categoryId);
+        write(() -> {
+            List<String> cascaded = List.copyOf(documentService.documentIdsInCategory(categoryId));
+            categoryService.deleteCategory(adminActor, categoryId);
+            // The documents were removed before their category, and are reported in the same order.
+            for (String documentId : cascaded) publish(new Mutation.DocumentDeleted(documentId));
+            publish(new Mutation.CategoryDeleted(categoryId));
+        });
     }
 
     public Document createDocument(Author actor, String title, String categoryId, String initialContent) {
-        return documentService.createDocument(actor, title, categoryId, initialContent);
+        return write(() -> {
+            Document doc = documentService.createDocument(actor, title, categoryId, initialContent);
+            publish(new Mutation.DocumentCreated(doc.getId(), doc.getTitle(), doc.getCategoryId(), doc.getAuthorUsername(),
+                    doc.getCreatedAt(), doc.getLatestContent()));
+            return doc;
+        });
     }
 
     public void updateDocumentText(Author actor, String documentId, String newContent) {
-        documentService.updateDocumentText(actor, documentId, newContent);
+        write(() -> {
+            documentService.updateDocumentText(actor, documentId, newContent);
+            DocumentVersion latest = documentsById.get(documentId).getLatestVersion();
+            publish(new Mutation.VersionAdded(documentId, latest.getVersionNumber(), latest.getCreatedAt(), latest.getContent()));
+        });
     }
 
     public void deleteDocument(Author actor, String documentId) {
-        documentService.deleteDocument(actor, documentId);
+        write(() -> {
+            documentService.deleteDocument(actor, documentId);
+            publish(new Mutation.DocumentDeleted(documentId));
+        });
     }
 
     public Document getDocumentForViewing(User actor, String documentId) {
-        return documentService.getDocumentForViewing(actor, documentId);
+        return read(() -> documentService.getDocumentForViewing(actor, documentId));
     }
 
     public List<DocumentVersion> getVisibleVersions(User actor, String documentId) {
-        return documentService.getVisibleVersions(actor, documentId);
+        return read(() -> documentService.getVisibleVersions(actor, documentId));
     }
 
     public List<Document> search(User actor, Optional<String> categoryId, Optional<String> titleContains, Optional<String> authorUsername) {
-        return documentService.search(actor, categoryId, titleContains, authorUsername);
+        return read(() -> documentService.search(actor, categoryId, titleContains, authorUsername, Optional.empty()));
+    }
+
+    /**
+     * Like {@link #search(User, Optional, Optional, Optional)}, also keeping only the documents whose author's
+     * first and last name contain, for every word of {@code authorName}, a word starting with it (ignoring case).
+     * Documents of deleted authors are matched on their username instead.
+     */
+    public List<Document> search(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                                 Optional<String> authorUsername, Optional<String> authorName) {
+        return read(() -> documentService.search(actor, categoryId, titleContains, authorUsername, authorName));
+    }
+
+    /**
+     * Hit, miss and eviction counts of the cache that repeated {@link #search} calls are answered from.
+     */
+    public SearchCacheStats getSearchCacheStats() {
+        return documentService.searchCacheStats();
+    }
+
+    /**
+     * Number of documents in the categories the actor can access.
+     */
+    public int countVisibleDocuments(User actor) {
+        return read(() -> documentService.countVisibleDocuments(actor));
+    }
+
+    /**
+     * Returns the documents matching the same criteria as {@link #search(User, Optional, Optional, Optional, Optional)},
+     * one page at a time in the given order.
+     *
+     * @param pageSize maximum number of documents per page
+     * @param cursor   {@code null} for the first page, otherwise the {@link DocumentPage#nextCursor()} of the
+     *                 previous page, requested with the same sort and direction
+     * @throws IllegalArgumentException if the cursor was issued for another sort or direction
+     */
+    public DocumentPage searchPage(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                                   Optional<String> authorUsername, Optional<String> authorName,
+                                   DocumentSort sort, boolean ascending, int pageSize, String cursor) {
+        return read(() -> documentService.searchPage(actor, categoryId, titleContains, authorUsername, authorName,
+                sort, ascending, pageSize, cursor));
+    }
+
+    /**
+     * Titles of accessible documents resembling {@code query}, most similar first, tolerating typos.
+     * Cheap enough to call on every keystroke.
+     *
+     * @param limit maximum number of suggestions
+     */
+    public List<FuzzyMatch<Document>> suggestTitles(User actor, String query, int limit) {
+        return read(() -> documentService.suggestTitles(actor, query, limit));
+    }
+
+    /**
+     * Names of accessible categories resembling {@code query}, most similar first, tolerating typos.
+     *
+     * @param limit maximum number of suggestions
+     */
+    public List<FuzzyMatch<Category>> suggestCategories(User actor, String query, int limit) {
+        return read(() -> categoryService.suggestCategories(actor, query, limit));
+    }
+
+    /**
+     * Searches the latest content of the documents the actor can access, best match first.
+     *
+     * @param query     words, and phrases in double quotes that matching documents must contain
+     * @param pageIndex zero-based index of the page to return
+     * @param pageSize  maximum number of hits per page
+     */
+    public RankedPage searchContent(User actor, String query, int pageIndex, int pageSize) {
+        return read(() -> documentService.searchContent(actor, query, pageIndex, pageSize));
     }
 
     public void followDocument(User actor, String documentId) {
-        followService.followDocument(actor, documentId, documentService);
+        write(() -> {
+            User user = AccessControl.requireUser(actor, usersByUsername);
+            followService.followDocument(user, documentId, documentService);
+            publish(new Mutation.Followed(user.getUsername(), documentId));
+        });
     }
 
     public void unfollowDocument(User actor, String documentId) {
-        followService.unfollowDocument(actor, documentId);
+        write(() -> {
+            User user = AccessControl.requireUser(actor, usersByUsername);
+            followService.unfollowDocument(user, documentId);
+            publish(new Mutation.Unfollowed(user.getUsername(), documentId));
+        });
     }
 
 //    public List<String> getNotificationsOnLogin(User actor) {
 //        return followService.getNotificationsOnLogin(actor);
 //    }
     public String buildLoginPopupMessage(User actor) {
-        return followService.buildPopupMessageAndConsume(actor, documentsById, categoriesById);
+        return write(() -> {
+            User user = AccessControl.requireUser(actor, usersByUsername);
+            boolean hadRemovalNotices = user.hasRemovalNotices();
+            String message = followService.buildPopupMessageAndConsume(user, documentsById, categoriesById);
+            if (hadRemovalNotices) publish(new Mutation.RemovalNoticesRead(user.getUsername()));
+            return message;
+        });
+    }
+    /**
+     * Counts what {@link #buildLoginPopupMessage} would show the user, without consuming anything. The counts
+     * are kept up to date as documents change, so this is cheap enough to poll.
+     */
+    public UnreadCounts getUnreadCounts(User actor) {
+        return read(() -> {
+            Objects.requireNonNull(actor, "actor cannot be null");
+            return followService.unreadCounts(actor);
+        });
     }
+
     public void markDocumentSeen(User actor, String documentId) {
-        followService.markDocumentSeen(actor, documentId, documentService);
+        write(() -> {
+            User user = AccessControl.requireUser(actor, usersByUsername);
+            followService.markDocumentSeen(user, documentId, documentService);
+            int seenVersion = user.lastSeenVersion(documentId).orElseThrow();
+            publish(new Mutation.DocumentSeen(user.getUsername(), documentId, seenVersion));
+        });
     }
 
     public User login(String username, String plainPassword) {
-        return authService.login(username, plainPassword);
+        return read(() -> authService.login(username, plainPassword));
+    }
+
+    /**
+     * Re-applies a mutation recorded during an earlier session, e.g. while replaying a mutation log.
+     * <p>
+     * No permission checks are performed and registered listeners are not notified.
+     *
+     * @param mutation the mutation to apply
+     */
+    public void replay(Mutation mutation) {
+        write(() -> {
+            switch (mutation) {
+                case Mutation.UserAdded m -> userService.restoreUser(m.username(), m.passwordHash(), m.firstName(),
+                        m.lastName(), m.role(), m.allowedCategoryIds());
+                case Mutation.UserDeleted m -> userService.removeUser(m.username());
+                case Mutation.UserAccessChanged m -> userService.restoreAccess(m.username(), m.allowedCategoryIds());
+                case Mutation.CategoryAdded m -> categoryService.restoreCategory(m.categoryId(), m.name());
+                case Mutation.CategoryRenamed m -> categoryService.rename(AccessControl.findCategory(m.categoryId(), categoriesById), m.newName());
+                case Mutation.CategoryDeleted m -> categoryService.removeCategory(AccessControl.findCategory(m.categoryId(), categoriesById));
+                case Mutation.DocumentCreated m -> documentService.restoreDocument(m.documentId(), m.title(), m.categoryId(),
+                        m.authorUsername(), m.createdAt(), m.content());
+                case Mutation.VersionAdded m -> documentService.restoreVersion(m.documentId(), m.versionNumber(), m.createdAt(), m.content());
+                case Mutation.DocumentDeleted m -> documentService.removeDocument(AccessControl.findDocument(m.documentId(), documentsById));
+                // Logs written before deleted users were rejected may still name them, so these skip unknown users.
+                case Mutation.Followed m -> ifUserExists(m.username(), u -> followService.follow(u, m.documentId()));
+                case Mutation.Unfollowed m -> ifUserExists(m.username(), u -> followService.unfollow(u, m.documentId()));
+                case Mutation.DocumentSeen m -> ifUserExists(m.username(), u -> followService.seen(u, m.documentId(), m.versionNumber()));
+                case Mutation.RemovalNoticesRead m -> ifUserExists(m.username(), User::clearRemovalNotices);
+            }
+        });
+    }
+
+    private void ifUserExists(String username, Consumer<User> action) {
+        User user = usersByUsername.get(username);
+        if (user != null) action.accept(user);
+    }
+
+    /**
+     * Runs {@code reader} while no change can be made, so that everything it reads, through this facade or
+     * the objects it returned, is one consistent state. Changes wait until it returns; trying to make one
+     * from within {@code reader} fails with an {@link IllegalStateException}.
+     */
+    public <T> T readAtomically(Supplier<T> reader) {
+        Objects.requireNonNull(reader, "reader cannot be null");
+        if (readingAtomically.get()) return reader.get();
+        return read(() -> {
+            readingAtomically.set(true);
+            try {
+                return reader.get();
+            } finally {
+                readingAtomically.set(false);
+            }
+        });
+    }
+
+    private <T> T read(Supplier<T> action) {
+        if (readingAtomically.get()) return action.get();
+        long stamp = lock.readLock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private <T> T write(Supplier<T> action) {
+        if (readingAtomically.get()) throw new IllegalStateException("No changes can be made within readAtomically");
+        long stamp = lock.writeLock();
+        try {
+            for (MutationListener listener : mutationListeners) listener.beforeMutation();
+            return action.get();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void write(Runnable action) {
+        write(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private void publish(Mutation mutation) {
+        // Credentials stay with the listeners (the journal); subscribers are not trusted with them.
+        changeStream.append(mutation instanceof Mutation.UserAdded m ? m.withoutPasswordHash() : mutation);
+        for (MutationListener listener : mutationListeners) {
+            listener.onMutation(mutation);
+        }
     }
 
     public Map<String, User> getUsers() {
-        return Collections.unmodifiableMap(new HashMap<>(usersByUsername));
+        return read(() -> Collections.unmodifiableMap(new HashMap<>(usersByUsername)));
     }
 
     public Map<String, Category> getCategories() {
-        return Collections.unmodifiableMap(new HashMap<>(categoriesById));
+        return read(() -> Collections.unmodifiableMap(new HashMap<>(categoriesById)));
     }
 
     public Map<String, Document> getDocuments() {
-        return Collections.unmodifiableMap(new HashMap<>(documentsById));
+        return read(() -> Collections.unmodifiableMap(new HashMap<>(documentsById)));
+    }
+
+    /**
+     * The distinct version contents of all documents, each stored once however many versions share it.
+     */
+    public ContentStore getContentStore() {
+        return contentStore;
     }
 }
\ No newline at end of file
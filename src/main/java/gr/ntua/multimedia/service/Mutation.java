@@ -0,0 +1,47 @@
+package gr.ntua.multimedia.service;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * A state change performed through {@link MediaLabSystem}, carrying everything needed to apply it
+ * again (generated ids, timestamps and password hashes included).
+ * <p>
+ * Mutations are reported to registered {@link MutationListener}s after the operation succeeded and
+ * can be re-applied with {@link MediaLabSystem#replay(Mutation)}.
+ */
+public sealed interface Mutation {
+    /** In a {@link ChangeEvent} the password hash is always null; only listeners and replay see it. */
+    record UserAdded(String username, String passwordHash, String firstName, String lastName,
+                     String role, Set<String> allowedCategoryIds) implements Mutation {
+        UserAdded withoutPasswordHash() {
+            return new UserAdded(username, null, firstName, lastName, role, allowedCategoryIds);
+        }
+    }
+
+    record UserDeleted(String username) implements Mutation {}
+
+    record UserAccessChanged(String username, Set<String> allowedCategoryIds) implements Mutation {}
+
+    record CategoryAdded(String categoryId, String name) implements Mutation {}
+
+    record CategoryRenamed(String categoryId, String newName) implements Mutation {}
+
+    record CategoryDeleted(String categoryId) implements Mutation {}
+
+    record DocumentCreated(String documentId, String title, String categoryId, String authorUsername,
+                           LocalDateTime createdAt, String content) implements Mutation {}
+
+    record VersionAdded(String documentId, int versionNumber, LocalDateTime createdAt, String content) implements Mutation {}
+
+    record DocumentDeleted(String documentId) implements Mutation {}
+
+    record Followed(String username, String documentId) implements Mutation {}
+
+    record Unfollowed(String username, String documentId) implements Mutation {}
+
+    record DocumentSeen(String username, String documentId, int versionNumber) implements Mutation {}
+
+    /** The user was shown, and so no longer has, their pending removal notices. */
+    record RemovalNoticesRead(String username) implements Mutation {}
+}
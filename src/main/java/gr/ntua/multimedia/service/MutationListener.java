@@ -0,0 +1,16 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * Receives every {@link Mutation} applied through the {@link MediaLabSystem} facade.
+ */
+@FunctionalInterface
+public interface MutationListener {
+    void onMutation(Mutation mutation);
+
+    /**
+     * Called under the facade's write lock before each state-changing call is applied. Throwing rejects
+     * the call before anything changes, e.g. once the listener can no longer record mutations.
+     */
+    default void beforeMutation() {
+    }
+}
@@ -0,0 +1,21 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+
+import java.util.List;
+
+/**
+ * One page of a ranked full-text search, best match first.
+ *
+ * @param hits       the matches on this page
+ * @param totalHits  how many accessible documents matched in all
+ * @param pageIndex  the zero-based index of this page
+ * @param pageSize   the maximum number of hits per page
+ */
+public record RankedPage(List<Hit> hits, int totalHits, int pageIndex, int pageSize) {
+    public record Hit(Document document, double score) {}
+
+    public boolean hasNextPage() {
+        return (long) (pageIndex + 1) * pageSize < totalHits;
+    }
+}
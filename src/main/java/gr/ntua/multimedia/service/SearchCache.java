@@ -0,0 +1,87 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Admin;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Least-recently-used cache of search results, keyed by what decides them: the categories the user may
+ * access and the normalized filters. Users with the same access share entries.
+ * <p>
+ * Instead of being cleared, results carry the generation they were computed in. Adding or removing a
+ * document bumps the generation of its category and the global one; a result filtered by category is
+ * only stale once that category's generation moved, any other result once the global one did. Results
+ * filtered by author name also depend on which users exist.
+ */
+final class SearchCache {
+    static final int CAPACITY = 256;
+
+    private record Key(Set<String> access, String categoryId, String title, String authorUsername, String authorName) {}
+
+    private record Entry(long generation, long usersGeneration, List<Document> results) {}
+
+    private final AuthorNameIndex authorNames;
+    private final Map<String, Long> categoryGenerations = new HashMap<>();
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(CAPACITY * 4 / 3 + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= CAPACITY) return false;
+            evictions++;
+            return true;
+        }
+    };
+
+    SearchCache(AuthorNameIndex authorNames) {
+        this.authorNames = authorNames;
+    }
+
+    synchronized void documentsChanged(String categoryId) {
+        generation++;
+        categoryGenerations.merge(categoryId, 1L, Long::sum);
+    }
+
+    List<Document> get(User actor, Optional<String> categoryId, Optional<String> titleContains,
+                       Optional<String> authorUsername, Optional<String> authorName, Supplier<List<Document>> search) {
+        // Admins see every category, so their access is not a set of ids.
+        Key key = new Key(actor instanceof Admin ? null : Set.copyOf(actor.getAllowedCategoryIds()),
+                categoryId.orElse(null),
+                titleContains.map(TextUtil::normalize).orElse(null),
+                authorUsername.orElse(null),
+                authorName.filter(n -> !n.isBlank()).map(TextUtil::normalize).orElse(null));
+        // Concurrent searches share the cache but not the monitor while they search.
+        long current;
+        synchronized (this) {
+            current = categoryId.isPresent() ? categoryGenerations.getOrDefault(categoryId.get(), 0L) : generation;
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation() == current
+                    && (key.authorName() == null || entry.usersGeneration() == authorNames.generation())) {
+                hits++;
+                return entry.results();
+            }
+            misses++;
+        }
+        List<Document> results = search.get();
+        synchronized (this) {
+            entries.put(key, new Entry(current, authorNames.generation(), results));
+        }
+        return results;
+    }
+
+    synchronized SearchCacheStats stats() {
+        return new SearchCacheStats(hits, misses, evictions, entries.size());
+    }
+}
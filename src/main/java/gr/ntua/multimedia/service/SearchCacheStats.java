@@ -0,0 +1,16 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * Counters of the cache behind {@link MediaLabSystem#search}, since the system was created.
+ *
+ * @param hits      searches answered from the cache
+ * @param misses    searches that had to be run, including those whose cached result had become stale
+ * @param evictions results dropped to stay within the cache's capacity
+ * @param size      results currently cached
+ */
+public record SearchCacheStats(long hits, long misses, long evictions, int size) {
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
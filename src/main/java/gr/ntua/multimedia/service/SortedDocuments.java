@@ -0,0 +1,96 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The documents ordered by each {@link DocumentSort}, so a page of sorted results is read off the front of
+ * a tree instead of sorting every match.
+ * <p>
+ * The order for a sort is built the first time that sort is used; sorting by {@link DocumentSort#LAST_MODIFIED}
+ * loads every history. A document must be removed before it changes and added back afterwards, since its
+ * key in some orders depends on its latest version.
+ */
+final class SortedDocuments {
+    /**
+     * Position of a document in one order. The text is only set for {@link DocumentSort#TITLE} and the
+     * time fields only for the others.
+     */
+    record SortKey(String text, long seconds, int nanos, String documentId) {
+        static final Comparator<SortKey> ORDER = Comparator
+                .comparing(SortKey::text, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(SortKey::text)
+                .thenComparingLong(SortKey::seconds)
+                .thenComparingInt(SortKey::nanos)
+                .thenComparing(SortKey::documentId);
+
+        static SortKey of(DocumentSort sort, Document doc) {
+            return switch (sort) {
+                case TITLE -> new SortKey(doc.getTitle(), 0, 0, doc.getId());
+                case CREATED_AT -> at(doc.getCreatedAt(), doc.getId());
+                case LAST_MODIFIED -> at(doc.getLatestVersion().getCreatedAt(), doc.getId());
+                case VERSION_COUNT -> new SortKey("", doc.getLatestVersionNumber(), 0, doc.getId());
+            };
+        }
+
+        private static SortKey at(LocalDateTime time, String documentId) {
+            return new SortKey("", time.toEpochSecond(ZoneOffset.UTC), time.getNano(), documentId);
+        }
+
+        /** An opaque token for resuming after this key in the given sort and direction. */
+        String toCursor(DocumentSort sort, boolean ascending) {
+            String raw = sort.name() + '\n' + (ascending ? 'A' : 'D') + '\n' + seconds + '\n' + nanos + '\n'
+                    + documentId + '\n' + text;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @throws IllegalArgumentException if {@code cursor} was not issued for this sort and direction
+         */
+        static SortKey fromCursor(String cursor, DocumentSort sort, boolean ascending) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = raw.split("\n", 6);
+                if (parts.length != 6 || !parts[0].equals(sort.name()) || !parts[1].equals(ascending ? "A" : "D")) {
+                    throw new IllegalArgumentException("Cursor does not belong to this sort order");
+                }
+                return new SortKey(parts[5], Long.parseLong(parts[2]), Integer.parseInt(parts[3]), parts[4]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+
+    private final Map<String, Document> documentsById;
+    private final Map<DocumentSort, TreeMap<SortKey, Document>> orders = new EnumMap<>(DocumentSort.class);
+
+    SortedDocuments(Map<String, Document> documentsById) {
+        this.documentsById = documentsById;
+    }
+
+    void add(Document doc) {
+        orders.forEach((sort, order) -> order.put(SortKey.of(sort, doc), doc));
+    }
+
+    void remove(Document doc) {
+        orders.forEach((sort, order) -> order.remove(SortKey.of(sort, doc)));
+    }
+
+    // Searches may run concurrently; once built, an order only changes along with the documents.
+    synchronized NavigableMap<SortKey, Document> order(DocumentSort sort) {
+        return orders.computeIfAbsent(sort, s -> {
+            TreeMap<SortKey, Document> order = new TreeMap<>(SortKey.ORDER);
+            for (Document doc : documentsById.values()) order.put(SortKey.of(s, doc), doc);
+            return order;
+        });
+    }
+}
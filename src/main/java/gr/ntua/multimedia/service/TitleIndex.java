@@ -0,0 +1,84 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.util.TextUtil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Trigram index over normalized document titles, answering "title contains" queries.
+ * <p>
+ * A query of three or more characters only looks at the documents whose title contains every trigram
+ * of the query. These are found by intersecting the posting sets, smallest first, and then verified
+ * with {@code contains}. Shorter queries scan the titles. Titles and queries are compared in their
+ * {@link TextUtil#normalize normalized} form, so case and accents do not matter; a title's is computed
+ * once, when its document is created.
+ */
+final class TitleIndex {
+    private static final int GRAM = 3;
+
+    private final Map<String, String> normalizedTitleById = new HashMap<>();
+    private final Map<String, Set<String>> idsByTrigram = new HashMap<>();
+
+    void add(Document doc) {
+        normalizedTitleById.put(doc.getId(), doc.getNormalizedTitle());
+        for (String gram : trigrams(doc.getNormalizedTitle())) {
+            idsByTrigram.computeIfAbsent(gram, g -> new HashSet<>()).add(doc.getId());
+        }
+    }
+
+    void remove(Document doc) {
+        if (normalizedTitleById.remove(doc.getId()) == null) return;
+        for (String gram : trigrams(doc.getNormalizedTitle())) {
+            Set<String> ids = idsByTrigram.get(gram);
+            if (ids != null && ids.remove(doc.getId()) && ids.isEmpty()) idsByTrigram.remove(gram);
+        }
+    }
+
+    /** Ids of the documents whose normalized title contains the normalized query. */
+    Set<String> matching(String query) {
+        String q = TextUtil.normalize(query);
+        Set<String> result = new HashSet<>();
+        if (q.length() < GRAM) {
+            for (Map.Entry<String, String> e : normalizedTitleById.entrySet()) {
+                if (e.getValue().contains(q)) result.add(e.getKey());
+            }
+            return result;
+        }
+        List<Set<String>> postings = new ArrayList<>();
+        for (String gram : trigrams(q)) {
+            Set<String> ids = idsByTrigram.get(gram);
+            if (ids == null) return result;
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        candidates:
+        for (String id : postings.get(0)) {
+            for (int i = 1; i < postings.size(); i++) {
+                if (!postings.get(i).contains(id)) continue candidates;
+            }
+            // Trigrams can all be present without being adjacent in the right order.
+            if (normalizedTitleById.get(id).contains(q)) result.add(id);
+        }
+        return result;
+    }
+
+    /** Tests document ids the way {@link #matching} selects them, for candidates found another way. */
+    Predicate<String> matcher(String query) {
+        String q = TextUtil.normalize(query);
+        return id -> normalizedTitleById.get(id).contains(q);
+    }
+
+    private static Set<String> trigrams(String s) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= s.length(); i++) grams.add(s.substring(i, i + GRAM));
+        return grams;
+    }
+}
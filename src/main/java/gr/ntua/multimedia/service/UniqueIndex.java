@@ -0,0 +1,26 @@
+package gr.ntua.multimedia.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps normalized keys to the id of the one entity that holds each, so uniqueness checks are a lookup.
+ */
+final class UniqueIndex {
+    private final Map<String, String> idByKey = new HashMap<>();
+
+    /** Whether {@code key} is held by an entity other than {@code excludeId}. */
+    boolean isTaken(String key, String excludeId) {
+        String id = idByKey.get(key);
+        return id != null && !id.equals(excludeId);
+    }
+
+    void put(String key, String id) {
+        idByKey.put(key, id);
+    }
+
+    // Leaves the key alone if another entity has taken it since.
+    void remove(String key, String id) {
+        idByKey.remove(key, id);
+    }
+}
@@ -0,0 +1,14 @@
+package gr.ntua.multimedia.service;
+
+/**
+ * What the login notification would tell a user right now.
+ *
+ * @param updatedDocuments  followed documents, in categories the user can access, listed as having versions they have
+ *                          not seen; at most {@link gr.ntua.multimedia.domain.User#MAX_UPDATED_DOCUMENTS}
+ * @param removedDocuments  followed documents deleted since the user was last notified
+ */
+public record UnreadCounts(int updatedDocuments, int removedDocuments) {
+    public int total() {
+        return updatedDocuments + removedDocuments;
+    }
+}
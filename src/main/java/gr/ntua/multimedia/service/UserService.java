@@ -21,10 +21,16 @@ import java.util.Set;
 final class UserService {
     private final Map<String, User> usersByUsername;
     private final Map<String, Category> categoriesById;
+    private final AuthorNameIndex authorNames;
+    private final FollowService followService;
 
-    UserService(Map<String, User> usersByUsername, Map<String, Category> categoriesById) {
+    UserService(Map<String, User> usersByUsername, Map<String, Category> categoriesById, AuthorNameIndex authorNames,
+                FollowService followService) {
         this.usersByUsername = usersByUsername;
         this.categoriesById = categoriesById;
+        this.authorNames = authorNames;
+        this.followService = followService;
+        usersByUsername.values().forEach(authorNames::add);
     }
 
     void addUser(Admin adminActor, String firstName, String lastName, String role,
@@ -56,14 +62,9 @@ final class UserService {
 
 
         String passwordHash = PasswordHasher.hash(plainPassword);
-        User created = switch (normalizedRole) {
-            case "SIMPLE" -> new SimpleUser(username, passwordHash, firstName, lastName, validatedAccess, Set.of(), Map.of());
-            case "AUTHOR" -> new Author(username, passwordHash, firstName, lastName, validatedAccess, Set.of(), Map.of());
-            case "ADMIN" -> new Admin(username, passwordHash, firstName, lastName, validatedAccess, Set.of(), Map.of());
-            default -> throw new ValidationException("Unsupported role: " + role);
-        };
+        User created = createUser(normalizedRole, username, passwordHash, firstName, lastName, validatedAccess, Set.of(), Map.of());
 
-        usersByUsername.put(username, created);
+        putUser(created);
     }
 
     void deleteUser(Admin adminActor, String username) {
@@ -72,9 +73,18 @@ final class UserService {
         if ("medialab".equals(username)) {
             throw new ValidationException("Default admin cannot be deleted");
         }
-        if (usersByUsername.remove(username) == null) {
+        if (!usersByUsername.containsKey(username)) {
             throw new NotFoundException("User not found: " + username);
         }
+        removeUser(username);
+    }
+
+    void removeUser(String username) {
+        User removed = usersByUsername.remove(username);
+        if (removed != null) {
+            authorNames.remove(removed);
+            followService.userRemoved(removed);
+        }
     }
 
     List<User> listUsers(Admin adminActor) {
@@ -112,43 +122,66 @@ final class UserService {
         }
 
         // Rebuild user object to avoid needing protected grant/revoke methods across packages
-        // Keep: username, passwordHash, names, followed docs, lastSeen map
-        User rebuilt = switch (role.toUpperCase()) {
-            case "ADMIN" -> new Admin(
-                    existing.getUsername(),
-                    existing.getPasswordHash(),
-                    existing.getFirstName(),
-                    existing.getLastName(),
-                    validatedAccess,
-                    existing.getFollowedDocumentIds(),
-                    existing.getLastSeenVersionByDocId()
-            );
-            case "AUTHOR" -> new Author(
-                    existing.getUsername(),
-                    existing.getPasswordHash(),
-                    existing.getFirstName(),
-                    existing.getLastName(),
-                    validatedAccess,
-                    existing.getFollowedDocumentIds(),
-                    existing.getLastSeenVersionByDocId()
-            );
-            default -> new SimpleUser(
-                    existing.getUsername(),
-                    existing.getPasswordHash(),
-                    existing.getFirstName(),
-                    existing.getLastName(),
-                    validatedAccess,
-                    existing.getFollowedDocumentIds(),
-                    existing.getLastSeenVersionByDocId()
-            );
-        };
+        // Keep: username, passwordHash, names, followed docs, lastSeen map, removal notices
+        User rebuilt = rebuildWithAccess(existing, validatedAccess);
 
         usersByUsername.put(targetUsername, rebuilt);
+        followService.accessChanged(rebuilt);
     }
 
 
+    void restoreUser(String username, String passwordHash, String firstName, String lastName,
+                     String role, Set<String> allowedCategoryIds) {
+        putUser(createUser(role, username, passwordHash, firstName, lastName, allowedCategoryIds, Set.of(), Map.of()));
+    }
+
+    void restoreAccess(String username, Set<String> allowedCategoryIds) {
+        User existing = AccessControl.findUser(username, usersByUsername);
+        User rebuilt = rebuildWithAccess(existing, allowedCategoryIds);
+        usersByUsername.put(username, rebuilt);
+        followService.accessChanged(rebuilt);
+    }
+
+    private static User rebuildWithAccess(User existing, Set<String> allowedCategoryIds) {
+        User rebuilt = createUser(
+                existing.getRoleName(),
+                existing.getUsername(),
+                existing.getPasswordHash(),
+                existing.getFirstName(),
+                existing.getLastName(),
+                allowedCategoryIds,
+                existing.getFollowedDocumentIds(),
+                existing.getLastSeenVersionByDocId()
+        );
+        existing.getRemovalNotices().forEach(rebuilt::addRemovalNotice);
+        rebuilt.restoreUpdatedDocuments(existing.getUpdatedDocumentIds());
+        return rebuilt;
+    }
+
+    private static User createUser(String role, String username, String passwordHash, String firstName, String lastName,
+                                   Set<String> allowedCategoryIds, Set<String> followedDocumentIds,
+                                   Map<String, Integer> lastSeenVersionByDocId) {
+        return switch (role.toUpperCase()) {
+            case "SIMPLE" -> new SimpleUser(username, passwordHash, firstName, lastName, allowedCategoryIds, followedDocumentIds, lastSeenVersionByDocId);
+            case "AUTHOR" -> new Author(username, passwordHash, firstName, lastName, allowedCategoryIds, followedDocumentIds, lastSeenVersionByDocId);
+            case "ADMIN" -> new Admin(username, passwordHash, firstName, lastName, allowedCategoryIds, followedDocumentIds, lastSeenVersionByDocId);
+            default -> throw new ValidationException("Unsupported role: " + role);
+        };
+    }
+
     void bootstrapDefaultAdmin() {
         String hash = PasswordHasher.hash("medialab_2025");
-        usersByUsername.put("medialab", new Admin("medialab", hash, "Media", "Lab", Set.of(), Set.of(), Map.of()));
+        putUser(new Admin("medialab", hash, "Media", "Lab", Set.of(), Set.of(), Map.of()));
+    }
+
+    // For new users; rebuilding an existing user with other access keeps its name and follows, so needs no re-indexing.
+    private void putUser(User user) {
+        User previous = usersByUsername.put(user.getUsername(), user);
+        if (previous != null) {
+            authorNames.remove(previous);
+            followService.userRemoved(previous);
+        }
+        authorNames.add(user);
+        followService.userAdded(user);
     }
 }
\ No newline at end of file
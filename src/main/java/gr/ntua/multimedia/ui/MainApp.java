@@ -1,7 +1,7 @@
 package gr.ntua.multimedia.ui;
 
 import gr.ntua.multimedia.domain.User;
-import gr.ntua.multimedia.persistence.JsonStorage;
+import gr.ntua.multimedia.persistence.JournaledStorage;
 import gr.ntua.multimedia.service.MediaLabSystem;
 import gr.ntua.multimedia.ui.controller.DashboardController;
 import gr.ntua.multimedia.ui.controller.LoginController;
@@ -14,13 +14,13 @@ import javafx.scene.layout.Region;
 import java.nio.file.Path;
 
 public class MainApp extends Application {
-    private JsonStorage storage;
+    private JournaledStorage storage;
     private MediaLabSystem system;
 
     @Override
     public void start(Stage stage) {
-        storage = new JsonStorage(Path.of("data", "medialab.json"));
-        system = storage.loadOrCreateDefault();
+        storage = new JournaledStorage(Path.of("data", "medialab.json"), Path.of("data", "medialab.log"));
+        system = storage.open();
 
         showLogin(stage);
     }
@@ -38,8 +38,8 @@ public class MainApp extends Application {
 
         Scene dashboardScene = new Scene(
                 dashboardController.createView(user, () -> {
-                    // SAVE on logout
-                    storage.save(system);
+                    // Every change is already journaled; fold the session into a fresh snapshot in the background
+                    storage.checkpoint();
                     showLogin(stage);
                 }),
                 900, 640
@@ -62,7 +62,7 @@ public class MainApp extends Application {
     @Override
     public void stop() {
         if (storage != null && system != null) {
-            storage.save(system);
+            storage.close();
         }
     }
 }
\ No newline at end of file
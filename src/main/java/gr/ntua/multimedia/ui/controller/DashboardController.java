@@ -35,6 +35,7 @@ public class DashboardController {
         Label categoriesCount = new Label();
         Label documentsCount = new Label();
         Label followedCount = new Label();
+        Label unreadCount = new Label();
 
         Runnable refreshSummary = () -> {
             int totalCategories = system.getCategories().size();
@@ -44,10 +45,11 @@ public class DashboardController {
             categoriesCount.setText("Categories: " + totalCategories);
             documentsCount.setText("Documents: " + totalDocuments);
             followedCount.setText("Followed: " + followedDocs);
+            unreadCount.setText("New versions: " + system.getUnreadCounts(user).updatedDocuments());
         };
         refreshSummary.run();
 
-        HBox summaryBar = new HBox(20, categoriesCount, documentsCount, followedCount);
+        HBox summaryBar = new HBox(20, categoriesCount, documentsCount, followedCount, unreadCount);
         summaryBar.setPadding(new Insets(6, 0, 6, 0));
 
         VBox topBox = new VBox(8, header, summaryBar);
@@ -14,7 +14,6 @@ import javafx.scene.layout.VBox;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 public class DocumentsController {
     private final MediaLabSystem system;
@@ -147,20 +146,7 @@ public class DocumentsController {
                         .map(String::trim)
                         .filter(s -> !s.isBlank());
 
-                List<Document> base = system.search(user, categoryIdOpt, titleOpt, Optional.empty());
-
-                if (authorNameOpt.isPresent()) {
-                    String q = authorNameOpt.get().toLowerCase();
-                    base = base.stream()
-                            .filter(d -> {
-                                User au = system.getUsers().get(d.getAuthorUsername());
-                                String full = (au != null)
-                                        ? (au.getFirstName() + " " + au.getLastName())
-                                        : d.getAuthorUsername();
-                                return full.toLowerCase().contains(q);
-                            })
-                            .collect(Collectors.toList());
-                }
+                List<Document> base = system.search(user, categoryIdOpt, titleOpt, Optional.empty(), authorNameOpt);
 
                 docs.getItems().setAll(base);
 
@@ -0,0 +1,27 @@
+package gr.ntua.multimedia.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+public final class TextUtil {
+    private TextUtil() {}
+
+    /**
+     * Key under which texts that differ only in case, accents or surrounding whitespace compare equal,
+     * e.g. "Ιστορία", "ΙΣΤΟΡΙΑ" and "ιστορια".
+     * <p>
+     * The text is decomposed (NFD) and its combining marks dropped, which strips tonos, dialytika and
+     * Latin accents. It is then upper- and lower-cased with the root locale, the same on every machine,
+     * and final sigma is folded into σ. Keys are meant to be computed once, when a name is set, and
+     * stored alongside it.
+     */
+    public static String normalize(String value) {
+        String decomposed = Normalizer.normalize(value.trim(), Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) stripped.append(c);
+        }
+        return stripped.toString().toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT).replace('ς', 'σ');
+    }
+}
@@ -0,0 +1,60 @@
+package gr.ntua.multimedia;
+
+import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.DocumentVersion;
+import gr.ntua.multimedia.domain.RemovalNotice;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.service.MediaLabSystem;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Text form of everything a system stores, in a fixed order, so that two systems hold the same state
+ * exactly when their dumps are equal.
+ */
+public final class StateDump {
+    private StateDump() {
+    }
+
+    public static String of(MediaLabSystem system) {
+        return system.readAtomically(() -> {
+            StringBuilder sb = new StringBuilder();
+            List<User> users = system.getUsers().values().stream()
+                    .sorted(Comparator.comparing(User::getUsername)).toList();
+            for (User u : users) {
+                sb.append("user ").append(u.getUsername()).append(' ').append(u.getRoleName())
+                        .append(' ').append(u.getFirstName()).append(' ').append(u.getLastName())
+                        .append(" allowed=").append(new TreeSet<>(u.getAllowedCategoryIds()))
+                        .append(" follows=").append(new TreeSet<>(u.getFollowedDocumentIds()))
+                        .append(" seen=").append(new TreeMap<>(u.getLastSeenVersionByDocId()))
+                        .append(" updated=").append(u.getUpdatedDocumentIds())
+                        .append(" removed=");
+                for (RemovalNotice n : u.getRemovalNotices()) {
+                    sb.append('[').append(n.getTitle()).append('|').append(n.getCategoryName()).append(']');
+                }
+                sb.append('\n');
+            }
+            List<Category> categories = system.getCategories().values().stream()
+                    .sorted(Comparator.comparing(Category::getId)).toList();
+            for (Category c : categories) {
+                sb.append("category ").append(c.getId()).append(' ').append(c.getName()).append('\n');
+            }
+            List<Document> documents = system.getDocuments().values().stream()
+                    .sorted(Comparator.comparing(Document::getId)).toList();
+            for (Document d : documents) {
+                sb.append("document ").append(d.getId()).append(' ').append(d.getTitle())
+                        .append(' ').append(d.getCategoryId()).append(' ').append(d.getAuthorUsername())
+                        .append(' ').append(d.getCreatedAt()).append('\n');
+                for (DocumentVersion v : d.getVersions()) {
+                    sb.append("  v").append(v.getVersionNumber()).append(' ').append(v.getCreatedAt())
+                            .append(' ').append(v.getContent()).append('\n');
+                }
+            }
+            return sb.toString();
+        });
+    }
+}
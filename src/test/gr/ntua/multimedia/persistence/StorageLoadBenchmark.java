@@ -0,0 +1,103 @@
+package gr.ntua.multimedia.persistence;
+
+import gr.ntua.multimedia.StateDump;
+import gr.ntua.multimedia.domain.Admin;
+import gr.ntua.multimedia.domain.Author;
+import gr.ntua.multimedia.domain.Category;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.service.MediaLabSystem;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Measures how long loading the same store takes from {@link JsonStorage} and from {@link BinaryStorage}.
+ * <p>
+ * For every size given (document counts, 10000 and 100000 by default) it saves a generated store in both
+ * formats, checks that both load back to the saved state, and prints the best of several timed loads.
+ */
+public final class StorageLoadBenchmark {
+    private static final int CATEGORIES = 20;
+    private static final int USERS = 200;
+    private static final int VERSIONS = 3;
+    private static final int ROUNDS = 5;
+
+    private StorageLoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[]{10_000, 100_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+
+        Path dir = Files.createTempDirectory("medialab-load");
+        System.out.printf("%10s %12s %12s %10s %10s%n", "documents", "json KB", "binary KB", "json ms", "binary ms");
+        for (int size : sizes) {
+            MediaLabSystem system = generate(size);
+            Path json = dir.resolve("store-" + size + ".json");
+            Path binary = dir.resolve("store-" + size + ".bin");
+            new JsonStorage(json).save(system);
+            new BinaryStorage(binary).save(system);
+
+            String expected = StateDump.of(system);
+            check(expected.equals(StateDump.of(new JsonStorage(json).loadOrCreateDefault())), "JSON load differs");
+            check(expected.equals(StateDump.of(new BinaryStorage(binary).loadOrCreateDefault())), "binary load differs");
+
+            long jsonNanos = bestOf(() -> new JsonStorage(json).loadOrCreateDefault());
+            long binaryNanos = bestOf(() -> new BinaryStorage(binary).loadOrCreateDefault());
+            System.out.printf("%10d %12d %12d %10.1f %10.1f%n", size, Files.size(json) / 1024, Files.size(binary) / 1024,
+                    jsonNanos / 1e6, binaryNanos / 1e6);
+        }
+    }
+
+    // Every document has a few versions of a few hundred characters; authors follow and have seen some.
+    private static MediaLabSystem generate(int documentCount) {
+        Map<String, Category> categories = new HashMap<>();
+        for (int c = 0; c < CATEGORIES; c++) categories.put("category-" + c, new Category("category-" + c, "Category " + c));
+
+        Map<String, Document> documents = new HashMap<>();
+        LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 9, 0, 0, 123_456_789);
+        for (int i = 0; i < documentCount; i++) {
+            String text = "Document " + i + " in a store generated for the load benchmark. ".repeat(6);
+            Document doc = new Document("document-" + i, "Title " + i, "category-" + i % CATEGORIES,
+                    "author-" + i % USERS, createdAt, text);
+            for (int v = 2; v <= VERSIONS; v++) doc.addNewVersion(text + " Revision " + v + ".", createdAt.plusDays(v));
+            documents.put(doc.getId(), doc);
+        }
+
+        Map<String, User> users = new HashMap<>();
+        Set<String> allCategories = categories.keySet();
+        for (int u = 0; u < USERS; u++) {
+            Set<String> followed = new HashSet<>();
+            Map<String, Integer> seen = new HashMap<>();
+            for (int i = u; i < documentCount; i += documentCount / 10 + 1) {
+                followed.add("document-" + i);
+                seen.put("document-" + i, 1 + i % VERSIONS);
+            }
+            users.put("author-" + u, new Author("author-" + u, "hash-" + u, "Author", "No" + u, allCategories, followed, seen));
+        }
+        users.put("admin", new Admin("admin", "hash", "Media", "Lab", Set.of(), Set.of(), Map.of()));
+        return new MediaLabSystem(users, categories, documents);
+    }
+
+    private static long bestOf(Supplier<MediaLabSystem> load) {
+        load.get();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            load.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
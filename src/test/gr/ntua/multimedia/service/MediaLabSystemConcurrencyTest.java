@@ -0,0 +1,201 @@
+package gr.ntua.multimedia.service;
+
+import gr.ntua.multimedia.StateDump;
+import gr.ntua.multimedia.domain.Admin;
+import gr.ntua.multimedia.domain.Author;
+import gr.ntua.multimedia.domain.Document;
+import gr.ntua.multimedia.domain.DocumentVersion;
+import gr.ntua.multimedia.domain.User;
+import gr.ntua.multimedia.persistence.JournaledStorage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of the facade shared between threads: authors edit, create and delete documents, an admin
+ * keeps changing the readers' access, readers query and mark documents seen, and checkpoints run in the
+ * background, all at once on a journaled store.
+ * <p>
+ * Within {@link MediaLabSystem#readAtomically} readers check that the state they see is consistent:
+ * the counts, searches and unread counters agree with the documents and follows. Afterwards no edit may
+ * be lost, and the store reopened from its snapshot and log must hold exactly the live state.
+ * <p>
+ * Run {@link #main}; the first failed check ends it with an {@link AssertionError}.
+ */
+public final class MediaLabSystemConcurrencyTest {
+    private static final int AUTHORS = 4;
+    private static final int EDITS_PER_AUTHOR = 300;
+    private static final int READERS = 4;
+    private static final int CATEGORIES = AUTHORS;
+
+    private MediaLabSystemConcurrencyTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("medialab-concurrency");
+        Path snapshot = dir.resolve("medialab.json");
+        Path log = dir.resolve("medialab.log");
+        JournaledStorage storage = new JournaledStorage(snapshot, log);
+        MediaLabSystem system = storage.open();
+
+        Admin admin = (Admin) system.login("medialab", "medialab_2025");
+        List<String> categoryIds = new ArrayList<>();
+        for (int c = 0; c < CATEGORIES; c++) categoryIds.add(system.addCategory(admin, "Category " + c).getId());
+        for (int a = 0; a < AUTHORS; a++) {
+            system.addUser(admin, "Author", "No" + a, "AUTHOR", Set.copyOf(categoryIds), "author" + a, "pw");
+        }
+        for (int r = 0; r < READERS; r++) {
+            system.addUser(admin, "Reader", "No" + r, "SIMPLE", Set.copyOf(categoryIds), "reader" + r, "pw");
+        }
+        // One document per author, in the category of the same number, followed by every reader.
+        List<String> followedIds = new ArrayList<>();
+        for (int a = 0; a < AUTHORS; a++) {
+            Author author = (Author) system.login("author" + a, "pw");
+            followedIds.add(system.createDocument(author, "Followed document " + a, categoryIds.get(a), "start").getId());
+        }
+        for (int r = 0; r < READERS; r++) {
+            User reader = system.login("reader" + r, "pw");
+            for (String id : followedIds) system.followDocument(reader, id);
+        }
+
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writersDone = new AtomicBoolean();
+        AtomicInteger consistencyChecks = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(AUTHORS + READERS + 2);
+        List<Future<?>> writers = new ArrayList<>();
+        List<Future<?>> others = new ArrayList<>();
+
+        for (int a = 0; a < AUTHORS; a++) {
+            Author author = (Author) system.login("author" + a, "pw");
+            int authorIndex = a;
+            writers.add(pool.submit(() -> guard(failures, () -> {
+                for (int i = 0; i < EDITS_PER_AUTHOR; i++) {
+                    system.updateDocumentText(author, followedIds.get(authorIndex), "edit " + i);
+                    if (i % 10 == 0) {
+                        Document doc = system.createDocument(author, "Draft " + authorIndex + "-" + i,
+                                categoryIds.get(i % CATEGORIES), "draft " + i);
+                        if (i % 20 == 0) system.deleteDocument(author, doc.getId());
+                    }
+                }
+            })));
+        }
+        // Category 0 is never revoked, so readers can always mark its document seen.
+        others.add(pool.submit(() -> guard(failures, () -> {
+            int round = 0;
+            while (!writersDone.get()) {
+                String reader = "reader" + (round % READERS);
+                Set<String> allowed = new HashSet<>(categoryIds);
+                if (round / READERS % 2 == 0) allowed.remove(categoryIds.get(1 + round % (CATEGORIES - 1)));
+                system.updateUserCategories(admin, reader, allowed);
+                round++;
+                Thread.sleep(1);
+            }
+        })));
+        for (int r = 0; r < READERS; r++) {
+            String username = "reader" + r;
+            others.add(pool.submit(() -> guard(failures, () -> {
+                while (!writersDone.get()) {
+                    User reader = system.getUsers().get(username);
+                    system.readAtomically(() -> {
+                        checkConsistent(system, admin, system.getUsers().get(username));
+                        return null;
+                    });
+                    consistencyChecks.incrementAndGet();
+                    system.search(reader, Optional.empty(), Optional.of("document"), Optional.empty());
+                    system.searchContent(reader, "edit", 0, 10);
+                    system.suggestTitles(reader, "folowed dcoument", 5);
+                    // Every sort order is built lazily, so the first pages race to build it.
+                    for (DocumentSort sort : DocumentSort.values()) {
+                        system.searchPage(reader, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+                                sort, true, 20, null);
+                    }
+                    system.getUnreadCounts(reader);
+                    system.markDocumentSeen(reader, followedIds.get(0));
+                }
+            })));
+        }
+        others.add(pool.submit(() -> guard(failures, () -> {
+            while (!writersDone.get()) {
+                storage.checkpoint().join();
+                Thread.sleep(5);
+            }
+        })));
+
+        for (Future<?> f : writers) f.get();
+        writersDone.set(true);
+        for (Future<?> f : others) f.get();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        if (!failures.isEmpty()) throw new AssertionError("Concurrent call failed", failures.peek());
+
+        int edits = 0;
+        for (String id : followedIds) edits += system.getDocuments().get(id).getLatestVersionNumber() - 1;
+        check(edits == AUTHORS * EDITS_PER_AUTHOR, "edits lost: " + edits + " of " + AUTHORS * EDITS_PER_AUTHOR);
+        check(consistencyChecks.get() > 0, "no reader ran while the writers did");
+
+        storage.sync();
+        String live = StateDump.of(system);
+        JournaledStorage reopened = new JournaledStorage(snapshot, log);
+        check(live.equals(StateDump.of(reopened.open())), "reopened store differs from the live state");
+        storage.close();
+        System.out.println("OK: " + edits + " edits, " + consistencyChecks.get() + " consistent reads, reopened state equals live state");
+    }
+
+    // Admins see every document, so all three views of the document set must agree.
+    private static void checkConsistent(MediaLabSystem system, Admin admin, User reader) {
+        Map<String, Document> documents = system.getDocuments();
+        int visible = system.countVisibleDocuments(admin);
+        int found = system.search(admin, Optional.empty(), Optional.empty(), Optional.empty()).size();
+        check(visible == documents.size() && found == documents.size(),
+                "documents=" + documents.size() + " visible=" + visible + " found=" + found);
+
+        int unread = 0;
+        for (String id : reader.getFollowedDocumentIds()) {
+            Document doc = documents.get(id);
+            if (doc != null && reader.canAccessCategory(doc.getCategoryId())
+                    && reader.hasNewVersion(id, doc.getLatestVersionNumber())) {
+                unread++;
+            }
+        }
+        int counted = system.getUnreadCounts(reader).updatedDocuments();
+        check(counted == unread, reader.getUsername() + " unread counter " + counted + ", follows say " + unread);
+
+        for (Document doc : documents.values()) {
+            if (!reader.canAccessCategory(doc.getCategoryId())) continue;
+            List<DocumentVersion> versions = system.getVisibleVersions(reader, doc.getId());
+            int last = versions.get(versions.size() - 1).getVersionNumber();
+            check(last == doc.getLatestVersionNumber(), doc.getTitle() + " shows version " + last
+                    + " of " + doc.getLatestVersionNumber());
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void guard(Queue<Throwable> failures, Task task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            failures.add(t);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}